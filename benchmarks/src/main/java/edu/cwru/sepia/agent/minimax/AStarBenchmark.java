@@ -0,0 +1,57 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A path from the first footman to the first archer, with an A* search and
+ * with a lookup in the distance table that replaced it in the heuristic
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AStarBenchmark {
+
+	@State(Scope.Thread)
+	public static class Path {
+
+		AStarSearch search;
+		MapLocation footman;
+		MapLocation archer;
+
+		@Setup(Level.Trial)
+		public void locate(Positions positions) {
+			GameState root = positions.root;
+			int archerSlot = positions.roster.numFootmen;
+
+			search = new AStarSearch();
+			footman = new MapLocation(root.getX(0), root.getY(0));
+			archer = new MapLocation(root.getX(archerSlot), root.getY(archerSlot));
+		}
+	}
+
+	@Benchmark
+	public Stack<MapLocation> astarSearch(Positions positions, Path path) {
+		return path.search.AstarSearch(path.footman, path.archer, positions.snapshot.xExtent,
+				positions.snapshot.yExtent, null, positions.resources);
+	}
+
+	@Benchmark
+	public int distanceTable(Positions positions, Path path) {
+		return positions.snapshot.distances.distance(path.footman, path.archer);
+	}
+}
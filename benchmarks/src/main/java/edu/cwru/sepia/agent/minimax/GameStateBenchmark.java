@@ -0,0 +1,86 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of expanding and evaluating a single state, from the first state of
+ * each map. getChildren and executeAction are the paths that allocate a state
+ * per child, makeMove and unmakeMove the one the search actually runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+
+	/**
+	 * A copy of the root to make and unmake moves on, and the next move to
+	 * play on it
+	 */
+	@State(Scope.Thread)
+	public static class Worker {
+
+		GameState state;
+		int[] moves;
+		int next = 0;
+
+		@Setup(Level.Trial)
+		public void copy(Positions positions) {
+			state = positions.root.copy();
+			moves = new int[positions.roster.maxMoves];
+		}
+
+		int nextMove(Positions positions) {
+			int move = positions.moves[next];
+			next = (next + 1) % positions.moveCount;
+			return move;
+		}
+	}
+
+	@Benchmark
+	public GameState newGameState(Positions positions) {
+		return new GameState(positions.view, positions.roster, positions.snapshot);
+	}
+
+	@Benchmark
+	public List<GameStateChild> getChildren(Positions positions) {
+		return positions.root.getChildren();
+	}
+
+	@Benchmark
+	public GameState executeAction(Positions positions, Worker worker) {
+		return positions.root.executeAction(worker.nextMove(positions));
+	}
+
+	@Benchmark
+	public int generateMoves(Worker worker) {
+		return worker.state.generateMoves(worker.moves);
+	}
+
+	@Benchmark
+	public double makeUnmakeMove(Positions positions, Worker worker) {
+		worker.state.makeMove(worker.nextMove(positions));
+		double utility = worker.state.getUtility();
+		worker.state.unmakeMove();
+		return utility;
+	}
+
+	@Benchmark
+	public double getHeuristic(Positions positions) {
+		return new HeuristicUtility(positions.root).getHeuristic();
+	}
+}
@@ -0,0 +1,55 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+/**
+ * The first state of one of the maps in data/, loaded without starting SEPIA,
+ * and what the agent builds from it. The maps are looked up in the directory
+ * given by the maps system property, data by default, so the benchmarks are
+ * meant to be run from the project root.
+ */
+@State(Scope.Benchmark)
+public class Positions {
+
+	@Param({ "Game2fv2a", "Game2fv2a_Obstacles", "Game2fv1a_Obstacles" })
+	public String map;
+
+	edu.cwru.sepia.environment.model.state.State.StateView view;
+	UnitRoster roster;
+	MapSnapshot snapshot;
+	GameState root;
+	// joint moves of the footmen in the root
+	int[] moves;
+	int moveCount;
+	// resources of the map, in the form AStarSearch takes them
+	Set<MapLocation> resources;
+
+	@Setup(Level.Trial)
+	public void load() throws JAXBException {
+		view = Maps.load(new File(System.getProperty("maps", "data"), map + ".xml"));
+		roster = new UnitRoster(view);
+		snapshot = new MapSnapshot(view);
+		root = new GameState(view, roster, snapshot);
+		moves = new int[roster.maxMoves];
+		moveCount = root.generateMoves(moves);
+
+		resources = new HashSet<MapLocation>();
+
+		for (Integer id : view.getAllResourceIds()) {
+			ResourceNode.ResourceView resource = view.getResourceNode(id);
+			resources.add(new MapLocation(resource.getXPosition(), resource.getYPosition()));
+		}
+	}
+}
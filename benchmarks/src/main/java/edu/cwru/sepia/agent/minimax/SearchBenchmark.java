@@ -0,0 +1,75 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cwru.sepia.action.Action;
+
+/**
+ * One turn of the agent, the iterative deepening alpha beta search from the
+ * first state of each map up to the given depth. Every turn gets a new agent
+ * so the transposition table, the evaluation cache and the history scores
+ * start empty, as on the first turn of a game. Besides the searches per
+ * second, the nodes counter reports the states searched per second, which
+ * side by side over the search parameter compares the node counts of the
+ * search algorithms.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+	@Param({ "1", "3", "5" })
+	public String depth;
+
+	@Param({ SearchOptions.ALPHA_BETA, SearchOptions.PVS, SearchOptions.MTDF })
+	public String search;
+
+	@State(Scope.Thread)
+	public static class FreshAgent {
+
+		MinimaxAlphaBeta agent;
+
+		@Setup(Level.Invocation)
+		public void create(SearchBenchmark benchmark, Positions positions) {
+			agent = new MinimaxAlphaBeta(0, new String[] { benchmark.depth, "search=" + benchmark.search });
+			agent.prepare(positions.view);
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Nodes {
+
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			nodes = 0;
+		}
+	}
+
+	@Benchmark
+	public Map<Integer, Action> middleStep(Positions positions, FreshAgent agent, Nodes nodes) {
+		Map<Integer, Action> actions = agent.agent.middleStep(positions.view, null);
+		nodes.nodes += agent.agent.nodesSearched();
+		return actions;
+	}
+}
@@ -0,0 +1,78 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.cwru.sepia.environment.model.persistence.generated.XmlPlayer;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlUnit;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+
+/**
+ * The first state of a skirmish of the given number of footmen against as
+ * many archers. There are no maps this big in data/, so the units of
+ * Game2fv2a are replaced by size footmen spread over its fifth row and size
+ * archers spread over its thirteenth, each archer right across from a
+ * footman, as far apart as the footmen and archers of Game2fv2a. The chasing
+ * state is the root after the footmen's first move, scored as if they had
+ * already cornered an archer, so every footman has a goal to chase.
+ */
+@State(Scope.Benchmark)
+public class Skirmish {
+
+	@Param({ "2", "3", "4", "5", "6" })
+	public String size;
+
+	edu.cwru.sepia.environment.model.state.State.StateView view;
+	UnitRoster roster;
+	GameState root;
+	GameState chasing;
+	// joint moves of the footmen in the root
+	int[] moves;
+	int moveCount;
+
+	@Setup(Level.Trial)
+	public void load() throws JAXBException {
+
+		File file = new File(System.getProperty("maps", "data"), "Game2fv2a.xml");
+		XmlState xml = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller().unmarshal(file);
+		int units = Integer.parseInt(size);
+		List<XmlPlayer> players = xml.getPlayer();
+
+		for (int player = 0; player < players.size(); player++) {
+
+			List<XmlUnit> army = players.get(player).getUnit();
+			XmlUnit model = army.get(0);
+			army.clear();
+
+			for (int i = 0; i < units; i++) {
+				XmlUnit unit = new XmlUnit();
+				unit.setID(player * units + i);
+				unit.setCurrentHealth(model.getCurrentHealth());
+				unit.setXPosition(3 + i * 18 / Math.max(1, units - 1));
+				unit.setYPosition(model.getYPosition());
+				unit.setTemplateID(model.getTemplateID());
+				army.add(unit);
+			}
+		}
+		xml.setNextTargetID(players.size() * units);
+
+		view = new XmlStateCreator(xml).createState().getView(0);
+		roster = new UnitRoster(view);
+		root = new GameState(view, roster, new MapSnapshot(view));
+		moves = new int[roster.maxMoves];
+		moveCount = root.generateMoves(moves);
+
+		chasing = root.executeAction(moves[0]);
+		chasing.chasing = true;
+	}
+}
@@ -0,0 +1,124 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cwru.sepia.action.Action;
+
+/**
+ * How the cost of the agent grows with the size of the armies, from 2
+ * against 2 up to 6 against 6, see Skirmish. The joint moves of a side grow
+ * exponentially with its units while evaluating a state only grows as a
+ * polynomial, the chase assignment of every footman looks at the footmen
+ * times the archers, so side by side over the size the move generation and
+ * search benchmarks show where the joint search stops being usable and the
+ * factored search has to take over.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SkirmishBenchmark {
+
+	/**
+	 * A copy of the root to make and unmake moves on, and the next move to
+	 * play on it
+	 */
+	@State(Scope.Thread)
+	public static class Worker {
+
+		GameState state;
+		int[] moves;
+		int next = 0;
+
+		@Setup(Level.Trial)
+		public void copy(Skirmish skirmish) {
+			state = skirmish.root.copy();
+			moves = new int[skirmish.roster.maxMoves];
+		}
+
+		int nextMove(Skirmish skirmish) {
+			int move = skirmish.moves[next];
+			next = (next + 1) % skirmish.moveCount;
+			return move;
+		}
+	}
+
+	/**
+	 * A new agent for every turn, as in SearchBenchmark
+	 */
+	@State(Scope.Thread)
+	public static class FreshAgent {
+
+		@Param({ "1", "2" })
+		public String depth;
+
+		@Param({ "false", "true" })
+		public String factored;
+
+		MinimaxAlphaBeta agent;
+
+		@Setup(Level.Invocation)
+		public void create(Skirmish skirmish) {
+			agent = new MinimaxAlphaBeta(0, new String[] { depth, "factored=" + factored });
+			agent.prepare(skirmish.view);
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Nodes {
+
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			nodes = 0;
+		}
+	}
+
+	@Benchmark
+	public int generateMoves(Worker worker) {
+		return worker.state.generateMoves(worker.moves);
+	}
+
+	@Benchmark
+	public double makeUnmakeMove(Skirmish skirmish, Worker worker) {
+		worker.state.makeMove(worker.nextMove(skirmish));
+		double utility = worker.state.getUtility();
+		worker.state.unmakeMove();
+		return utility;
+	}
+
+	@Benchmark
+	public double getHeuristic(Skirmish skirmish) {
+		return new HeuristicUtility(skirmish.root).getHeuristic();
+	}
+
+	@Benchmark
+	public double getChaseHeuristic(Skirmish skirmish) {
+		return new HeuristicUtility(skirmish.chasing).getHeuristic();
+	}
+
+	@Benchmark
+	public Map<Integer, Action> middleStep(Skirmish skirmish, FreshAgent agent, Nodes nodes) {
+		Map<Integer, Action> actions = agent.agent.middleStep(skirmish.view, null);
+		nodes.nodes += agent.agent.nodesSearched();
+		return actions;
+	}
+}
@@ -1,8 +1,6 @@
 package edu.cwru.sepia.agent.minimax;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.Stack;
 
@@ -10,170 +8,275 @@ import java.util.Stack;
  * Used the AStarSearch algorithm to estimate a path to the goal, this is
  * especially useful on a map with resources because just taking the difference
  * between two MapLocations doesn't account for resources, but AStarSearch does.
+ *
+ * Cells are ints, y * xExtent + x. The open set is a binary heap on the f
+ * score, and the g scores, parents and closed flags live in arrays indexed by
+ * cell that are kept between searches. Instead of clearing them, every search
+ * gets a new stamp and a cell whose stamp is older counts as unvisited. One
+ * instance searches on one thread at a time.
  */
 public class AStarSearch {
 
+	// returned instead of a length when the goal cannot be reached
+	public static final int NO_PATH = -1;
+
+	private int cells = 0;
+	private int stamp = 0;
+	// search that last touched the cell, the other arrays are only valid then
+	private int[] visited = new int[0];
+	private int[] gScore = new int[0];
+	private int[] cameFrom = new int[0];
+	private boolean[] closed = new boolean[0];
+	// binary heap of cells ordered by f score, ties broken by lower h score
+	private int[] heapCells = new int[0];
+	private long[] heapKeys = new long[0];
+	private int heapSize = 0;
+
 	/**
-	 * Computes a path from the start to the goal by using a heuristic to
-	 * estimate and expand favorable nodes
-	 * 
+	 * Computes a shortest path with four connected steps from the start to the
+	 * goal. The path can be read with getPath afterwards.
+	 *
 	 * @param start
+	 *            start cell
 	 * @param goal
+	 *            goal cell
 	 * @param xExtent
 	 * @param yExtent
-	 * @param enemyFootmanLoc
-	 * @param resourceLocations
-	 * @return
+	 * @param blocked
+	 *            cells that cannot be entered, indexed by cell
+	 * @return number of steps, or NO_PATH
 	 */
-	public Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent,
-			MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations) {
+	public int search(int start, int goal, int xExtent, int yExtent, boolean[] blocked) {
 
-		ArrayList<MapLocation> openList = new ArrayList<MapLocation>();
-		ArrayList<MapLocation> closedList = new ArrayList<MapLocation>();
+		prepare(xExtent * yExtent);
 
-		start.nodeCost = 0;
-		start.heuristicCost = 0;
-		start.functionCost = 0;
+		int goalX = goal % xExtent;
+		int goalY = goal / xExtent;
 
-		openList.add(start);
+		visit(start, 0, -1);
+		push(start, heuristic(start, xExtent, goalX, goalY), heuristic(start, xExtent, goalX, goalY));
 
-		while (!openList.isEmpty()) {
-			Collections.sort(openList);
-			MapLocation current = openList.get(0);
-			openList.remove(0);
+		while (heapSize > 0) {
+			int current = pop();
 
-			if (current.x == goal.x && current.y == goal.y) {
+			if (closed[current]) {
+				continue;
+			}
 
-				return returnPath(current, start);
+			if (current == goal) {
+				return gScore[goal];
 			}
 
-			closedList.add(current);
+			closed[current] = true;
 
-			List<MapLocation> neighbors = getNeighbors(current, resourceLocations, enemyFootmanLoc, xExtent, yExtent);
+			int x = current % xExtent;
+			int y = current / xExtent;
 
-			for (MapLocation neighbor : neighbors) {
-				neighbor.cameFrom = current;
-				neighbor.nodeCost = current.nodeCost + 1;
-				neighbor.heuristicCost = getHeuristic(neighbor, goal);
-				neighbor.functionCost = neighbor.nodeCost + neighbor.heuristicCost;
-				if (canAddToOpenList(neighbor, openList, closedList)) {
-					openList.add(neighbor);
-				}
+			// north, west, east and south, the order the old search used
+			if (y > 0) {
+				relax(current, current - xExtent, blocked, xExtent, goalX, goalY);
+			}
+			if (x > 0) {
+				relax(current, current - 1, blocked, xExtent, goalX, goalY);
+			}
+			if (x < xExtent - 1) {
+				relax(current, current + 1, blocked, xExtent, goalX, goalY);
+			}
+			if (y < yExtent - 1) {
+				relax(current, current + xExtent, blocked, xExtent, goalX, goalY);
 			}
 		}
-		System.exit(0);
-		return null;
+
+		return NO_PATH;
 	}
 
 	/**
-	 * Tests to see if this neighbor can be added to the openlist
-	 * 
-	 * @param neighbor
-	 * @param openList
-	 * @param closedList
-	 * @return
+	 * Writes the path found by the last successful search
+	 *
+	 * @param goal
+	 *            goal cell of that search
+	 * @param path
+	 *            receives the cells after the start up to and including the
+	 *            goal, must hold the length returned by search
+	 * @return number of cells written
 	 */
-	private boolean canAddToOpenList(MapLocation neighbor, ArrayList<MapLocation> openList,
-			ArrayList<MapLocation> closedList) {
-
-		boolean toAdd = true;
-		for (MapLocation node : openList) {
-			if (neighbor.x == node.x && neighbor.y == node.y) {
-				if (node.functionCost < neighbor.functionCost) {
-					toAdd = false;
-				}
-			}
+	public int getPath(int goal, int[] path) {
+
+		int length = gScore[goal];
+
+		for (int cell = goal, i = length - 1; i >= 0; cell = cameFrom[cell], i--) {
+			path[i] = cell;
 		}
-		for (MapLocation node : closedList) {
-			if (neighbor.x == node.x && neighbor.y == node.y) {
-				if (node.functionCost < neighbor.functionCost) {
-					toAdd = false;
-				}
+		return length;
+	}
+
+	/**
+	 * Computes a path from the start to the goal by using a heuristic to
+	 * estimate and expand favorable nodes
+	 *
+	 * @param start
+	 * @param goal
+	 * @param xExtent
+	 * @param yExtent
+	 * @param enemyFootmanLoc
+	 *            location that cannot be entered either, may be null
+	 * @param resourceLocations
+	 * @return the path with the next step on top, without the start and the
+	 *         goal, or null if there is no path
+	 */
+	public Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent,
+			MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations) {
+
+		boolean[] blocked = new boolean[xExtent * yExtent];
+
+		for (MapLocation resource : resourceLocations) {
+			if (inBounds(resource, xExtent, yExtent)) {
+				blocked[resource.y * xExtent + resource.x] = true;
 			}
 		}
-		return toAdd;
+		if (enemyFootmanLoc != null && inBounds(enemyFootmanLoc, xExtent, yExtent)) {
+			blocked[enemyFootmanLoc.y * xExtent + enemyFootmanLoc.x] = true;
+		}
+
+		if (!inBounds(start, xExtent, yExtent) || !inBounds(goal, xExtent, yExtent)) {
+			return null;
+		}
+
+		int goalCell = goal.y * xExtent + goal.x;
+		int length = search(start.y * xExtent + start.x, goalCell, xExtent, yExtent, blocked);
+
+		if (length == NO_PATH) {
+			return null;
+		}
 
+		int[] cells = new int[length];
+		getPath(goalCell, cells);
+
+		Stack<MapLocation> path = new Stack<MapLocation>();
+
+		for (int i = length - 2; i >= 0; i--) {
+			path.push(new MapLocation(cells[i] % xExtent, cells[i] / xExtent));
+		}
+		return path;
+	}
+
+	private static boolean inBounds(MapLocation loc, int xExtent, int yExtent) {
+		return loc.x >= 0 && loc.y >= 0 && loc.x < xExtent && loc.y < yExtent;
 	}
 
 	/**
-	 * Function to get heuristic
-	 * 
-	 * @param current
-	 * @param goal
-	 * @return
+	 * Sizes the arrays for the map and starts a new stamp
+	 *
+	 * @param size
+	 *            number of cells
 	 */
-	private double getHeuristic(MapLocation current, MapLocation goal) {
-		return Math.max(Math.abs(current.x - goal.x), Math.abs(current.y - goal.y));
+	private void prepare(int size) {
+
+		if (size != cells) {
+			cells = size;
+			visited = new int[size];
+			gScore = new int[size];
+			cameFrom = new int[size];
+			closed = new boolean[size];
+			heapCells = new int[4 * size];
+			heapKeys = new long[4 * size];
+			stamp = 0;
+		}
+
+		stamp++;
+		heapSize = 0;
+	}
+
+	private void visit(int cell, int g, int parent) {
+
+		visited[cell] = stamp;
+		gScore[cell] = g;
+		cameFrom[cell] = parent;
+		closed[cell] = false;
 	}
 
 	/**
-	 * Starts from the goal location, and backtracks until it finds the start
-	 * and returns the full path
-	 * 
-	 * @param goal
-	 * @param start
-	 * @return
+	 * Offers a neighbour of the cell being expanded to the open set
 	 */
-	private Stack<MapLocation> returnPath(MapLocation goal, MapLocation start) {
-		Stack<MapLocation> path = new Stack<MapLocation>();
+	private void relax(int current, int next, boolean[] blocked, int xExtent, int goalX, int goalY) {
 
-		MapLocation iter = goal;
-		while (iter.cameFrom != null) {
-			path.add(iter.cameFrom);
-			iter = iter.cameFrom;
+		if (blocked[next]) {
+			return;
 		}
-		// to remove start
 
-		if (path.isEmpty()) {
-			return path;
+		int g = gScore[current] + 1;
+
+		if (visited[next] == stamp && (closed[next] || gScore[next] <= g)) {
+			return;
 		}
 
-		path.pop();
+		visit(next, g, current);
+		int h = heuristic(next, xExtent, goalX, goalY);
+		push(next, g + h, h);
+	}
 
-		return path;
+	/**
+	 * Manhattan distance, never more than the real distance with four
+	 * connected steps
+	 */
+	private static int heuristic(int cell, int xExtent, int goalX, int goalY) {
+		return Math.abs(cell % xExtent - goalX) + Math.abs(cell / xExtent - goalY);
 	}
 
 	/**
-	 * Gets all the possible neighbors of a coordinate, excluding diagonals
-	 * 
-	 * @param current
-	 * @param resourceLocations
-	 * @param enemyFootmanLoc
-	 * @param xExtent
-	 * @param yExtent
-	 * @return
+	 * Adds a cell to the heap. A cell may be in the heap more than once, the
+	 * stale copies are skipped when popped since the cell is closed by then.
 	 */
-	private List<MapLocation> getNeighbors(MapLocation current, Set<MapLocation> resourceLocations,
-			MapLocation enemyFootmanLoc, int xExtent, int yExtent) {
-
-		ArrayList<MapLocation> neighbors = new ArrayList<MapLocation>();
-		boolean deleted = false;
-		int x = current.x;
-		int y = current.y;
-
-		neighbors.add(new MapLocation(x, y - 1, current, 1));
-		neighbors.add(new MapLocation(x - 1, y, current, 1));
-		neighbors.add(new MapLocation(x + 1, y, current, 1));
-		neighbors.add(new MapLocation(x, y + 1, current, 1));
-
-		for (MapLocation potentialNeighbor : new ArrayList<MapLocation>(neighbors)) {
-			deleted = false;
-			if (potentialNeighbor.x > xExtent || potentialNeighbor.x < 0 || potentialNeighbor.y > yExtent
-					|| potentialNeighbor.y < 0) {
-				neighbors.remove(potentialNeighbor);
-				deleted = true;
+	private void push(int cell, int f, int h) {
+
+		if (heapSize == heapCells.length) {
+			heapCells = Arrays.copyOf(heapCells, 2 * heapSize);
+			heapKeys = Arrays.copyOf(heapKeys, 2 * heapSize);
+		}
+
+		long key = ((long) f << 32) | h;
+		int i = heapSize++;
+
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+
+			if (heapKeys[parent] <= key) {
+				break;
 			}
-			for (MapLocation resource : resourceLocations) {
-				if (!deleted && resource.x == potentialNeighbor.x && resource.y == potentialNeighbor.y) {
-					neighbors.remove(potentialNeighbor);
-					deleted = true;
-				}
+			heapCells[i] = heapCells[parent];
+			heapKeys[i] = heapKeys[parent];
+			i = parent;
+		}
+		heapCells[i] = cell;
+		heapKeys[i] = key;
+	}
+
+	private int pop() {
+
+		int top = heapCells[0];
+		int cell = heapCells[--heapSize];
+		long key = heapKeys[heapSize];
+		int i = 0;
+
+		while (true) {
+			int child = 2 * i + 1;
+
+			if (child >= heapSize) {
+				break;
 			}
-			if (enemyFootmanLoc != null && !deleted && enemyFootmanLoc.x == potentialNeighbor.x
-					&& enemyFootmanLoc.y == potentialNeighbor.y) {
-				neighbors.remove(potentialNeighbor);
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+				child++;
 			}
+			if (key <= heapKeys[child]) {
+				break;
+			}
+			heapCells[i] = heapCells[child];
+			heapKeys[i] = heapKeys[child];
+			i = child;
 		}
-		return neighbors;
+		heapCells[i] = cell;
+		heapKeys[i] = key;
+
+		return top;
 	}
 }
@@ -0,0 +1,210 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Random;
+
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * The ArcherAgent in enemy_agents, ported to GameState so games can be played
+ * without SEPIA. Every archer decides on the same state, as the original does
+ * on the same state view:
+ *
+ * The closest footman is the one at the lowest chebyshev distance. When it is
+ * 4 or more cells away, or has less HP than twice the distance, the archer
+ * attacks it. Otherwise the archer scores its location and the four it could
+ * step to, and steps to the best one, preferring the last of equals. Staying
+ * only wins when every step scores lower, and then the archer attacks. The
+ * score grows towards the middle of the map and with the distance to every
+ * footman past 3, and drops sharply within 3. With one footman left the
+ * archer steps in a random direction 5% of the time instead.
+ *
+ * An attack in SEPIA is a compound action: the archer shoots when the footman
+ * is in range and walks towards it otherwise. Here it takes one step of a
+ * shortest path around the obstacles. A step onto a unit, a resource or off
+ * the map fails in SEPIA, so it is no action here.
+ */
+final class ArcherPolicy {
+
+	private final Random random;
+
+	/**
+	 * @param random
+	 *            source of the random steps, one per episode keeps episodes
+	 *            repeatable
+	 */
+	ArcherPolicy(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * @param state
+	 *            a state with the archers to move
+	 * @return the joint move of the archers
+	 */
+	int chooseMove(GameState state) {
+
+		UnitRoster roster = state.roster;
+		int footmen = state.alive & roster.footmenMask;
+		int move = JointMove.NONE;
+		// cells archers decided to step on, so two do not pick the same one
+		int[] claimed = new int[roster.numArchers];
+		int claimedCount = 0;
+
+		for (int archers = state.alive & roster.archerMask; archers != 0; archers &= archers - 1) {
+			int archer = Integer.numberOfTrailingZeros(archers);
+			int x = state.getX(archer);
+			int y = state.getY(archer);
+
+			int target = -1;
+			int closest = Integer.MAX_VALUE;
+
+			for (int bits = footmen; bits != 0; bits &= bits - 1) {
+				int footman = Integer.numberOfTrailingZeros(bits);
+				int distance = chebyshev(x, y, state.getX(footman), state.getY(footman));
+
+				if (distance < closest) {
+					closest = distance;
+					target = footman;
+				}
+			}
+
+			if (target < 0) {
+				continue;
+			}
+
+			int direction = -1;
+
+			if (closest < 4 && state.getHP(target) >= 2 * closest) {
+				direction = bestDirection(state, x, y);
+
+				if (direction >= 0 && random.nextDouble() > 0.95 && Integer.bitCount(footmen) == 1) {
+					direction = random.nextInt(JointMove.DIRECTIONS.length);
+				}
+			}
+
+			int action;
+
+			if (direction >= 0) {
+				action = step(state, x, y, direction, claimed, claimedCount);
+			} else {
+				action = attack(state, archer, target, claimed, claimedCount);
+			}
+
+			if (JointMove.isMove(action)) {
+				Direction step = JointMove.direction(action);
+				claimed[claimedCount++] = state.map.cell(x + step.xComponent(), y + step.yComponent());
+			}
+			move = JointMove.with(move, archer - roster.numFootmen, action);
+		}
+
+		return move;
+	}
+
+	/**
+	 * @return index into JointMove.DIRECTIONS of the best step, or -1 if
+	 *         staying scores higher than every step
+	 */
+	private static int bestDirection(GameState state, int x, int y) {
+
+		double best = score(state, x, y);
+		int direction = -1;
+
+		for (int i = 0; i < JointMove.DIRECTIONS.length; i++) {
+			// the original scores steps off the map as the nearest location on it
+			int nx = Math.min(Math.max(x + JointMove.DIRECTIONS[i].xComponent(), 0), state.map.xExtent - 1);
+			int ny = Math.min(Math.max(y + JointMove.DIRECTIONS[i].yComponent(), 0), state.map.yExtent - 1);
+			double score = score(state, nx, ny);
+
+			if (score >= best) {
+				direction = i;
+				best = score;
+			}
+		}
+		return direction;
+	}
+
+	/**
+	 * How much an archer likes a location
+	 */
+	private static double score(GameState state, int x, int y) {
+
+		int xExtent = state.map.xExtent;
+		int yExtent = state.map.yExtent;
+		double score = 2 * Math.sqrt(2.0 * x * (xExtent - x) + 2.0 * y * (yExtent - y));
+
+		for (int bits = state.alive & state.roster.footmenMask; bits != 0; bits &= bits - 1) {
+			int footman = Integer.numberOfTrailingZeros(bits);
+			int distance = chebyshev(x, y, state.getX(footman), state.getY(footman));
+
+			if (distance == 0) {
+				score = -1000;
+			} else if (distance == 1) {
+				score -= 100;
+			} else if (distance > 3) {
+				score += distance;
+			} else {
+				score -= 20 * (4 - distance);
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * @return the move action, or JointMove.NONE if the step fails
+	 */
+	private static int step(GameState state, int x, int y, int direction, int[] claimed, int claimedCount) {
+
+		int nx = x + JointMove.DIRECTIONS[direction].xComponent();
+		int ny = y + JointMove.DIRECTIONS[direction].yComponent();
+
+		if (!state.map.canMove(x, y, direction) || state.isOccupied(nx, ny)
+				|| isClaimed(state.map.cell(nx, ny), claimed, claimedCount)) {
+			return JointMove.NONE;
+		}
+		return JointMove.move(direction);
+	}
+
+	/**
+	 * @return an attack on the footman if it is in range, the first step
+	 *         towards it otherwise
+	 */
+	private static int attack(GameState state, int archer, int footman, int[] claimed, int claimedCount) {
+
+		int x = state.getX(archer);
+		int y = state.getY(archer);
+		int fx = state.getX(footman);
+		int fy = state.getY(footman);
+
+		if (state.roster.archerAttackRange >= Math.abs(fx - x) + Math.abs(fy - y)) {
+			return JointMove.attack(footman);
+		}
+
+		MapLocation next = state.map.distances.nextStep(new MapLocation(x, y), new MapLocation(fx, fy));
+
+		if (next == null) {
+			return JointMove.NONE;
+		}
+
+		for (int i = 0; i < JointMove.DIRECTIONS.length; i++) {
+			if (x + JointMove.DIRECTIONS[i].xComponent() == next.x
+					&& y + JointMove.DIRECTIONS[i].yComponent() == next.y) {
+				return step(state, x, y, i, claimed, claimedCount);
+			}
+		}
+		return JointMove.NONE;
+	}
+
+	private static boolean isClaimed(int cell, int[] claimed, int claimedCount) {
+
+		for (int i = 0; i < claimedCount; i++) {
+			if (claimed[i] == cell) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int chebyshev(int x, int y, int otherX, int otherY) {
+		return Math.max(Math.abs(x - otherX), Math.abs(y - otherY));
+	}
+}
@@ -0,0 +1,113 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * The memory of the MTD(f) search. MTD(f) searches the same positions over
+ * and over with null windows on different sides of the value, and every one
+ * of those searches only learns a bound. A transposition table entry holds a
+ * single bound, so the next pass, with the window on the other side, would
+ * throw away what the last one learned. Each entry here keeps a lower and an
+ * upper bound on the value of its position at the depth it was searched to,
+ * and a pass narrows them until they meet.
+ *
+ * The two bounds are the payload of a SearchTable slot. A deeper search of a
+ * position replaces its bounds and a search as deep as the stored one
+ * tightens them.
+ */
+public class BoundTable extends SearchTable {
+
+	private final long[] lowers;
+	private final long[] uppers;
+
+	public BoundTable() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param size
+	 *            number of slots, rounded up to a power of two
+	 */
+	public BoundTable(int size) {
+		super(size);
+		this.lowers = new long[capacity()];
+		this.uppers = new long[capacity()];
+	}
+
+	/**
+	 * Looks up a position
+	 *
+	 * @param key
+	 *            zobrist key of the position
+	 * @param entry
+	 *            receives the bounds stored for the position
+	 * @return the entry, or null if the position is not in the table
+	 */
+	public Entry probe(long key, Entry entry) {
+		int slot = index(key);
+		long data = data(slot);
+		long lower = lowers[slot];
+		long upper = uppers[slot];
+
+		if (!holds(slot, key, data, lower ^ upper)) {
+			return null;
+		}
+
+		entry.key = key;
+		entry.depth = depth(data);
+		entry.lower = Double.longBitsToDouble(lower);
+		entry.upper = Double.longBitsToDouble(upper);
+		entry.bestMove = move(data);
+		return entry;
+	}
+
+	/**
+	 * Stores the result of searching a position with a window. A value at
+	 * or under alpha is an upper bound, one at or over beta a lower bound,
+	 * and one in between is both.
+	 *
+	 * @param key
+	 * @param depth
+	 *            remaining plys the position was searched with
+	 * @param value
+	 * @param alpha
+	 *            alpha the position was searched with
+	 * @param beta
+	 *            beta the position was searched with
+	 * @param bestMove
+	 *            best joint move found, 0 if there is none
+	 */
+	public void store(long key, int depth, double value, double alpha, double beta, int bestMove) {
+		int slot = index(key);
+		long old = data(slot);
+		long oldLower = lowers[slot];
+		long oldUpper = uppers[slot];
+		double lower = value > alpha ? value : Double.NEGATIVE_INFINITY;
+		double upper = value < beta ? value : Double.POSITIVE_INFINITY;
+
+		if (holds(slot, key, old, oldLower ^ oldUpper)) {
+			if (depth(old) > depth) {
+				return;
+			} else if (depth(old) == depth) {
+				lower = Math.max(lower, Double.longBitsToDouble(oldLower));
+				upper = Math.min(upper, Double.longBitsToDouble(oldUpper));
+			}
+		}
+
+		long lowerBits = Double.doubleToRawLongBits(lower);
+		long upperBits = Double.doubleToRawLongBits(upper);
+		lowers[slot] = lowerBits;
+		uppers[slot] = upperBits;
+		write(slot, key, pack(bestMove, depth), lowerBits ^ upperBits);
+	}
+
+	/**
+	 * The bounds the table holds for a position, filled in by probe
+	 */
+	public static final class Entry {
+		public long key;
+		public int depth;
+		public double lower;
+		public double upper;
+		// packed joint move, see JointMove
+		public int bestMove;
+	}
+}
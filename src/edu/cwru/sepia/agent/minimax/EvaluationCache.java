@@ -0,0 +1,136 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size cache of leaf evaluations keyed by GameState.evaluationKey, the
+ * zobrist key mixed with the last move the heuristic scores. The same leaves
+ * are reached from many sibling subtrees and again on the next turn, and the
+ * transposition table only keeps positions that were searched, so the leaves
+ * are remembered here instead. The map never changes during an episode, so an
+ * evaluation stays valid for the whole episode.
+ *
+ * The table is two parallel long arrays with open addressing: a key is looked
+ * for in PROBES consecutive slots from its home slot. When they are all taken
+ * the one to overwrite is picked with the clock (second chance) rule, a slot
+ * that was read since it was last passed over loses its reference bit and is
+ * skipped once.
+ *
+ * Threads of the parallel root search share one cache without locking. A slot
+ * holds the value's bits and the key xored with them, so a slot read while
+ * another thread writes it does not match the key and is a miss.
+ */
+final class EvaluationCache {
+
+	static final int DEFAULT_SIZE = 1 << 16;
+
+	// slots a key may be stored in, starting from its home slot
+	private static final int PROBES = 4;
+
+	// key xor value bits, see the class comment
+	private final long[] checks;
+	private final long[] values;
+	// set when a slot is read or written, cleared as the clock passes over it
+	private final byte[] referenced;
+	private final int mask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param size
+	 *            number of slots, rounded up to a power of two
+	 */
+	EvaluationCache(int size) {
+		int capacity = Integer.highestOneBit(Math.max(PROBES, size) - 1) << 1;
+		this.checks = new long[capacity];
+		this.values = new long[capacity];
+		this.referenced = new byte[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Looks up the evaluation of a position
+	 *
+	 * @param key
+	 *            evaluation key of the state
+	 * @return the evaluation, or NaN if the state is not in the cache
+	 */
+	double probe(long key) {
+
+		int home = index(key);
+
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (home + i) & mask;
+			long value = values[slot];
+			long check = checks[slot];
+
+			if ((check ^ value) == key && (check | value) != 0) {
+				if (referenced[slot] == 0) {
+					referenced[slot] = 1;
+				}
+				hits.increment();
+				return Double.longBitsToDouble(value);
+			}
+		}
+
+		misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Stores the evaluation of a position, evicting another one if its slots
+	 * are full
+	 *
+	 * @param key
+	 * @param evaluation
+	 */
+	void store(long key, double evaluation) {
+
+		long value = Double.doubleToRawLongBits(evaluation);
+		int home = index(key);
+		int victim = -1;
+
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (home + i) & mask;
+
+			if ((checks[slot] | values[slot]) == 0 || (checks[slot] ^ values[slot]) == key) {
+				victim = slot;
+				break;
+			}
+		}
+
+		// every slot was referenced at most once, so two rounds find a victim
+		for (int i = 0; victim < 0; i++) {
+			int slot = (home + i % PROBES) & mask;
+
+			if (referenced[slot] == 0) {
+				victim = slot;
+			} else {
+				referenced[slot] = 0;
+			}
+		}
+
+		values[victim] = value;
+		checks[victim] = key ^ value;
+		referenced[victim] = 1;
+	}
+
+	/**
+	 * @return number of probes that found their position
+	 */
+	long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of probes that did not find their position
+	 */
+	long misses() {
+		return misses.sum();
+	}
+
+	private int index(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+}
@@ -1,15 +1,12 @@
 package edu.cwru.sepia.agent.minimax;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.action.DirectedAction;
-import edu.cwru.sepia.action.TargetedAction;
 import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.Direction;
@@ -21,27 +18,81 @@ import edu.cwru.sepia.util.Direction;
  *
  * Add any information or methods you would like to this class, but do not
  * delete or change the signatures of the provided methods.
+ *
+ * The units are kept in one int per unit slot (see UnitRoster) holding the x
+ * and y position and the HP, plus a bit mask of the slots still alive. A child
+ * state copies that array and nothing else, the roster and the map are shared
+ * with every other state of the episode.
+ *
+ * The search does not create children at all. It plays a joint move on its own
+ * copy of the state with makeMove and takes it back with unmakeMove, which
+ * restores the fields from a record on the state's undo stack. The stack is
+ * grown to the search depth once and reused, so no node allocates.
  */
 public class GameState {
 
+	// the SEPIA state a root was built from, null in states made by a search
 	public State.StateView stateView;
-	// id and xy location
-	public Map<Integer, MapLocation> footmenLocation = new HashMap<Integer, MapLocation>();
-	// id and xy location
-	public Map<Integer, MapLocation> archerLocation = new HashMap<Integer, MapLocation>();
-	public List<Integer> footmenID = new ArrayList<Integer>();
-	public List<Integer> archerID = new ArrayList<Integer>();
-	public Map<Integer, Integer> footmenHP = new HashMap<Integer, Integer>();
-	public Map<Integer, Integer> archerHP = new HashMap<Integer, Integer>();
-	public int footmenAttackRange;
-	public int archerAttackRange;
-	public int footmenAttackPt;
-	public int archerAttackPt;
+	// unit slots and stats, shared by all states of an episode
+	final UnitRoster roster;
+	// obstacles and distances of the map, shared by all states of an episode
+	final MapSnapshot map;
+	// per unit slot: x in bits 0-7, y in bits 8-15 and HP from bit 16 on
+	int[] units;
+	// bit i is set while the unit in slot i is alive
+	int alive;
+	// per cell of the map, see MapSnapshot.cell: 1 plus the slot of the live
+	// unit standing on it, 0 if there is none
+	byte[] occupants;
 	public double lifeExpectancy;
 	public double utility = 0;
-	public Map<Integer, Action> gAction;
-
-	Collection<Unit.UnitView> allUnits;
+	// heuristic term of each unit slot, utility is their sum
+	double[] terms;
+	// slots whose term is out of date, utility is the sum as of the last
+	// updateUtility
+	int staleTerms;
+	// zobrist key of the unit locations, HP, the side to move and the
+	// cornered latch
+	public long zobristKey;
+	// true if the footmen move next, the root of a search is always their turn
+	public boolean isMaxTurn = true;
+	// joint move that led to this state, JointMove.NONE at the root
+	int lastMove = JointMove.NONE;
+	// slots whose action in lastMove took effect: the unit took its step, or
+	// its attack hit a live unit
+	int landed;
+	// set once a footman has made it next to a corner, children inherit it
+	public boolean footmenCornered = false;
+	// true if the heuristic of this state chases the archers, which it does
+	// when the parent had the footmen cornered, see HeuristicUtility
+	boolean chasing = false;
+	// unit actions the side to move decided on so far, when the factored
+	// search has its units decide one at a time, and their slots
+	int pending;
+	int decided;
+
+	// undo records of makeMove, the record of move i starts at i times the
+	// record size of each array
+	private static final int UNDO_INTS = 7;
+	private int undoTop = 0;
+	private int[] undoUnits;
+	private int[] undoInts;
+	private long[] undoKeys;
+	private double[] undoValues;
+	// scratch space for the actions of each unit while generating moves,
+	// JointMove.MASK + 1 of them per unit of the side to move
+	private int[] unitActions;
+	// per unit of the side to move, while generating joint moves: the number
+	// of its actions, its index within the side and which of its actions it
+	// takes in the current move
+	private int[] actionCounts;
+	private int[] unitIndices;
+	private int[] odometer;
+	// keys of the states the joint moves with several attackers lead to, and
+	// a hash table of indices into them plus one, 0 for an empty slot,
+	// scratch space of dropTranspositions
+	private long[] attackKeys;
+	private int[] attackTable;
 
 	/**
 	 * You will implement this constructor. It will extract all of the needed
@@ -67,566 +118,903 @@ public class GameState {
 	 *            Current state of the episode
 	 */
 	public GameState(State.StateView state) {
-		this.stateView = state;
-		populatePlayers(state);
-
-		HeuristicUtility util = new HeuristicUtility(this);
-		this.utility += util.getHeuristic();
+		this(state, new UnitRoster(state), new MapSnapshot(state));
 	}
 
 	/**
-	 * GameState constructor that takes in individual fields rather than cloning
-	 * a GameState object
-	 * 
+	 * Builds the root of a search with the unit slots and the map of the
+	 * episode, so slots and zobrist keys stay the same from turn to turn and
+	 * the map is only read once
+	 *
 	 * @param state
-	 * @param footmenLocation
-	 * @param archerLocation
-	 * @param footmenID
-	 * @param archerID
-	 * @param footmenHP
-	 * @param archerHP
-	 * @param allUnits
-	 * @param footmenAttackRange
-	 * @param archerAttackRange
-	 * @param footmenAttackPt
-	 * @param archerAttackpt
-	 * @param lifeExpectancy
-	 * @param utility
-	 * @param action
+	 *            Current state of the episode
+	 * @param roster
+	 * @param map
 	 */
-	public GameState(State.StateView state, Map<Integer, MapLocation> footmenLocation,
-			Map<Integer, MapLocation> archerLocation, List<Integer> footmenID, List<Integer> archerID,
-			Map<Integer, Integer> footmenHP, Map<Integer, Integer> archerHP, Collection<Unit.UnitView> allUnits,
-			int footmenAttackRange, int archerAttackRange, int footmenAttackPt, int archerAttackpt,
-			double lifeExpectancy, double utility, Map<Integer, Action> action) {
+	GameState(State.StateView state, UnitRoster roster, MapSnapshot map) {
 		this.stateView = state;
-		this.footmenLocation = footmenLocation;
-		this.archerLocation = archerLocation;
-		this.footmenID = footmenID;
-		this.archerID = archerID;
-		this.footmenHP = footmenHP;
-		this.archerHP = archerHP;
-		this.footmenAttackRange = footmenAttackRange;
-		this.archerAttackRange = archerAttackRange;
-		this.footmenAttackPt = footmenAttackPt;
-		this.archerAttackPt = archerAttackpt;
-		this.lifeExpectancy = lifeExpectancy;
-		this.utility = utility;
-		this.gAction = action;
-
-		HeuristicUtility util = new HeuristicUtility(this);
-		this.utility += util.getHeuristic();
+		this.roster = roster;
+		this.map = map;
+		this.units = new int[roster.size()];
+		this.occupants = new byte[map.cells()];
+
+		for (int slot = 0; slot < roster.size(); slot++) {
+			Unit.UnitView unit = state.getUnit(roster.unitIds[slot]);
+
+			if (unit == null || unit.getHP() < 1) {
+				continue;
+			}
+
+			units[slot] = pack(unit.getXPosition(), unit.getYPosition(), unit.getHP());
+			alive |= 1 << slot;
+			occupants[map.cell(unit.getXPosition(), unit.getYPosition())] = (byte) (slot + 1);
+			zobristKey ^= ZobristHash.unit(slot, unit.getXPosition(), unit.getYPosition(), unit.getHP());
+		}
+
+		if (HeuristicUtility.footmanNearCorner(this)) {
+			markCornered();
+		}
+
+		this.terms = new double[roster.size()];
+
+		for (int slot = 0; slot < roster.size(); slot++) {
+			terms[slot] = HeuristicUtility.unitTerm(this, slot);
+			utility += terms[slot];
+		}
 	}
 
 	/**
-	 * Initializes the field from the StateView
-	 * 
-	 * @param state
+	 * Copies a state, without its undo stack
+	 *
+	 * @param other
 	 */
-	private void populatePlayers(State.StateView state) {
+	private GameState(GameState other) {
+		this.roster = other.roster;
+		this.map = other.map;
+		this.units = other.units.clone();
+		this.alive = other.alive;
+		this.occupants = other.occupants.clone();
+		this.lifeExpectancy = other.lifeExpectancy;
+		this.utility = other.utility;
+		this.terms = other.terms.clone();
+		this.staleTerms = other.staleTerms;
+		this.zobristKey = other.zobristKey;
+		this.isMaxTurn = other.isMaxTurn;
+		this.lastMove = other.lastMove;
+		this.landed = other.landed;
+		this.footmenCornered = other.footmenCornered;
+		this.chasing = other.chasing;
+		this.pending = other.pending;
+		this.decided = other.decided;
+	}
 
-		Collection<Unit.UnitView> units = state.getAllUnits();
+	/**
+	 * @return a copy of this state the search can make and unmake moves on
+	 */
+	GameState copy() {
+		return new GameState(this);
+	}
 
-		for (Unit.UnitView unit : units) {
-			if (unit.getTemplateView().getName().equals("Archer")) {
+	private static int pack(int x, int y, int hp) {
+		return x | (y << 8) | (hp << 16);
+	}
 
-				this.archerLocation.put(unit.getID(), new MapLocation(unit.getXPosition(), unit.getYPosition()));
-				this.archerID.add(unit.getID());
-				this.archerHP.put(unit.getID(), unit.getHP());
-				this.archerAttackRange = unit.getTemplateView().getRange();
-				this.archerAttackPt = unit.getTemplateView().getBasicAttack();
-			}
-			if (unit.getTemplateView().getName().equals("Footman")) {
+	int getX(int slot) {
+		return units[slot] & 0xFF;
+	}
 
-				this.footmenLocation.put(unit.getID(), new MapLocation(unit.getXPosition(), unit.getYPosition()));
-				this.footmenID.add(unit.getID());
-				this.footmenHP.put(unit.getID(), unit.getHP());
-				this.footmenAttackRange = unit.getTemplateView().getRange();
-				this.footmenAttackPt = unit.getTemplateView().getBasicAttack();
-			}
+	int getY(int slot) {
+		return (units[slot] >>> 8) & 0xFF;
+	}
+
+	int getHP(int slot) {
+		return units[slot] >>> 16;
+	}
+
+	boolean isAlive(int slot) {
+		return (alive & (1 << slot)) != 0;
+	}
+
+	/**
+	 * @param slot
+	 * @return what the unit did in the joint move that led to this state,
+	 *         JointMove.NONE if its side did not make that move
+	 */
+	int getLastAction(int slot) {
+
+		boolean footman = roster.isFootman(slot);
+
+		// the side that made the last move is the one not to move now
+		if (footman == isMaxTurn) {
+			return JointMove.NONE;
 		}
+		return JointMove.get(lastMove, footman ? slot : slot - roster.numFootmen);
+	}
 
-		this.allUnits = units;
+	/**
+	 * Sets the cornered latch, which switches the heuristic of the states
+	 * that follow to chasing the archers. The agent carries the latch from
+	 * turn to turn, since a root built from SEPIA does not know it.
+	 */
+	void markCornered() {
+
+		if (!footmenCornered) {
+			footmenCornered = true;
+			zobristKey ^= ZobristHash.CORNERED;
+		}
+	}
+
+	/**
+	 * The heuristic depends on the last move and the chasing mode as well as
+	 * on the position, so evaluations are cached under this key rather than
+	 * the zobrist key
+	 *
+	 * @return a key of everything the utility of this state depends on
+	 */
+	long evaluationKey() {
+		return zobristKey ^ ZobristHash.evaluation(lastMove, landed, chasing);
 	}
 
 	/**
 	 * Get all the possible actions an agent can make
 	 * 
-	 * @param id
-	 * @param location
-	 * @return
+	 * @param slot
+	 * @param actions
+	 *            receives the actions, see JointMove
+	 * @param offset
+	 *            index in actions of the first action
+	 * @return number of actions written
 	 */
-	private ArrayList<Action> getAction(Integer id, MapLocation location) {
-
-		ArrayList<Action> legalActions = new ArrayList<Action>();
+	private int getAction(int slot, int[] actions, int offset) {
 
-		for (Direction direction : Direction.values()) {
+		int count = 0;
+		int x = getX(slot);
+		int y = getY(slot);
 
-			// skip diagonals
-			if (!(direction.xComponent() == 0 || direction.yComponent() == 0)) {
-				continue;
-			}
+		for (int i = 0; i < JointMove.DIRECTIONS.length; i++) {
+			Direction direction = JointMove.DIRECTIONS[i];
 
-			if (isLocationValid(location.x + direction.xComponent(), location.y + direction.yComponent())) {
+			if (map.canMove(x, y, i) && !isOccupied(x + direction.xComponent(), y + direction.yComponent())) {
 
-				legalActions.add(Action.createPrimitiveMove(id, direction));
+				actions[offset + count++] = JointMove.move(i);
 			}
 		}
 
-		for (MapLocation enemy : getAttackableEnemies(location)) {
+		boolean footman = roster.isFootman(slot);
+		int range = footman ? roster.footmenAttackRange : roster.archerAttackRange;
+		int enemyBase = footman ? roster.numFootmen : 0;
+		int enemies = alive & (footman ? roster.archerMask : roster.footmenMask);
 
-			int enemyId = -1;
-			if (MinimaxAlphaBeta.isMaxTurn) {
+		// a melee unit can only hit what stands next to it
+		if (range == 1) {
+			enemies &= adjacentUnits(x, y);
+		}
 
-				for (Integer key : archerLocation.keySet()) {
+		for (int bits = enemies; bits != 0; bits &= bits - 1) {
+			int enemy = Integer.numberOfTrailingZeros(bits);
 
-					MapLocation loc = archerLocation.get(key);
+			if (range >= Math.abs(getX(enemy) - x) + Math.abs(getY(enemy) - y)) {
+				actions[offset + count++] = JointMove.attack(enemy - enemyBase);
+			}
+		}
 
-					if (loc.x == enemy.x && loc.y == enemy.y) {
-						enemyId = key;
-					}
-				}
-			} else {
+		return count;
+	}
 
-				for (Integer key : footmenLocation.keySet()) {
+	/**
+	 * Checks whether a footman stands within its attack range of an archer,
+	 * so the two can trade blows. The archers shoot from far away at almost
+	 * any time, so being in range of an archer alone does not count.
+	 *
+	 * @return true if some footman can attack some archer
+	 */
+	boolean inMelee() {
 
-					MapLocation loc = footmenLocation.get(key);
+		for (int footmen = alive & roster.footmenMask; footmen != 0; footmen &= footmen - 1) {
+			int footman = Integer.numberOfTrailingZeros(footmen);
 
-					if (loc.x == enemy.x && loc.y == enemy.y) {
-						enemyId = key;
-					}
+			if (roster.footmenAttackRange == 1) {
+				if ((adjacentUnits(getX(footman), getY(footman)) & roster.archerMask) != 0) {
+					return true;
 				}
+				continue;
 			}
 
-			legalActions.add(Action.createPrimitiveAttack(id, enemyId));
-		}
+			for (int archers = alive & roster.archerMask; archers != 0; archers &= archers - 1) {
+				int archer = Integer.numberOfTrailingZeros(archers);
 
-		return legalActions;
+				if (roster.footmenAttackRange >= Math.abs(getX(archer) - getX(footman))
+						+ Math.abs(getY(archer) - getY(footman))) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
 	/**
-	 * Checks to see if a location is valid. A location is valid if there are no
-	 * resources, is in bound, and is not occupied at the moment
+	 * Checks to see if a unit is standing on a location. Whether the location
+	 * is on the map and free of resources is up to the MapSnapshot.
 	 * 
 	 * @param x
 	 * @param y
+	 *            a location on the map
 	 * @return
 	 */
-	private boolean isLocationValid(int x, int y) {
-
-		if (stateView.isResourceAt(x, y) || !stateView.inBounds(x, y)) {
-			return false;
-		}
+	boolean isOccupied(int x, int y) {
+		return occupants[map.cell(x, y)] != 0;
+	}
 
-		for (Integer key : footmenLocation.keySet()) {
-			MapLocation locations = footmenLocation.get(key);
+	/**
+	 * @param x
+	 * @param y
+	 *            a location on the map
+	 * @return bit mask of the slots of the live units on the four cells next
+	 *         to the location
+	 */
+	int adjacentUnits(int x, int y) {
 
-			if (x == locations.x && y == locations.y) {
-				return false;
-			}
-		}
+		int slots = 0;
 
-		for (Integer key : archerLocation.keySet()) {
-			MapLocation locations = archerLocation.get(key);
+		for (int i = 0; i < JointMove.DIRECTIONS.length; i++) {
+			int nx = x + JointMove.DIRECTIONS[i].xComponent();
+			int ny = y + JointMove.DIRECTIONS[i].yComponent();
 
-			if (x == locations.x && y == locations.y) {
-				return false;
+			if (map.inBounds(nx, ny) && occupants[map.cell(nx, ny)] != 0) {
+				slots |= 1 << (occupants[map.cell(nx, ny)] - 1);
 			}
 		}
-
-		return true;
+		return slots;
 	}
 
 	/**
-	 * Returns a list of MapLocations of enemy I can attack
+	 * Gets all combinations of actions for each set of agent. Combinations
+	 * that lead to the same state as an earlier one are left out, see
+	 * dropTranspositions.
+	 *
+	 * The actions of every unit are written next to each other in
+	 * unitActions, and an odometer with a digit per unit steps through their
+	 * combinations, the last unit turning fastest. Only the digits that turn
+	 * change the joint move, so most moves cost a single JointMove.with.
 	 * 
-	 * @param location
-	 * @return
+	 * @param moves
+	 *            receives the joint moves, must hold roster.maxMoves of them
+	 * @return number of joint moves written, 0 if a unit of the side to move
+	 *         has no action
 	 */
-	private ArrayList<MapLocation> getAttackableEnemies(MapLocation location) {
+	int generateMoves(int[] moves) {
+
+		allocateScratch();
+
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int own = alive & (isMaxTurn ? roster.footmenMask : roster.archerMask);
+		int units = 0;
+		int move = JointMove.NONE;
+		// units of the side with a choice of targets
+		int choosers = 0;
 
-		ArrayList<MapLocation> attackables = new ArrayList<MapLocation>();
+		for (int bits = own; bits != 0; bits &= bits - 1) {
+			int slot = Integer.numberOfTrailingZeros(bits);
+			int offset = units * (JointMove.MASK + 1);
 
-		if (MinimaxAlphaBeta.isMaxTurn) {
-			// footmen's turn, my enemy is the archers
-			List<MapLocation> enemies = new ArrayList<MapLocation>();
+			actionCounts[units] = getAction(slot, unitActions, offset);
 
-			for (Integer key : archerLocation.keySet()) {
-				enemies.add(archerLocation.get(key));
+			if (actionCounts[units] == 0) {
+				return 0;
 			}
 
-			attackables = getAttackableEnemyList(location, enemies, footmenAttackRange);
-		} else {
+			// the attacks come after the moves
+			if (actionCounts[units] > 1 && JointMove.isAttack(unitActions[offset + actionCounts[units] - 2])) {
+				choosers |= 1 << (slot - base);
+			}
 
-			List<MapLocation> enemies = new ArrayList<MapLocation>();
+			unitIndices[units] = slot - base;
+			odometer[units] = 0;
+			move = JointMove.with(move, slot - base, unitActions[offset]);
+			units++;
+		}
 
-			for (Integer key : footmenLocation.keySet()) {
-				enemies.add(footmenLocation.get(key));
+		if (units == 0) {
+			return 0;
+		}
+
+		int count = 0;
+
+		while (true) {
+			moves[count++] = move;
+
+			// turn the last digit, carrying into the ones before it
+			int unit = units - 1;
+
+			while (unit >= 0 && ++odometer[unit] == actionCounts[unit]) {
+				odometer[unit] = 0;
+				move = JointMove.with(move, unitIndices[unit], unitActions[unit * (JointMove.MASK + 1)]);
+				unit--;
+			}
+
+			if (unit < 0) {
+				break;
 			}
-			attackables = getAttackableEnemyList(location, enemies, archerAttackRange);
+			move = JointMove.with(move, unitIndices[unit],
+					unitActions[unit * (JointMove.MASK + 1) + odometer[unit]]);
 		}
+		return dropTranspositions(moves, count, choosers);
+	}
 
-		return attackables;
+	/**
+	 * Allocates the scratch space of move generation the first time it is
+	 * needed, so states that are never expanded do not carry it
+	 */
+	private void allocateScratch() {
+
+		if (unitActions == null) {
+			unitActions = new int[JointMove.MAX_UNITS * (JointMove.MASK + 1)];
+			actionCounts = new int[JointMove.MAX_UNITS];
+			unitIndices = new int[JointMove.MAX_UNITS];
+			odometer = new int[JointMove.MAX_UNITS];
+		}
 	}
 
-	private ArrayList<MapLocation> getAttackableEnemyList(MapLocation me, List<MapLocation> enemies, int range) {
+	/**
+	 * Gets the actions of the next unit of the side to move that has not
+	 * decided yet, for the factored search. Each is a joint move with only
+	 * that unit's action in it, which makeMove holds back until the whole
+	 * side has decided.
+	 *
+	 * @param moves
+	 *            receives the moves, must hold roster.maxMoves of them
+	 * @return number of moves written, 0 if the side has no units left
+	 */
+	int generateUnitMoves(int[] moves) {
 
-		ArrayList<MapLocation> attackables = new ArrayList<MapLocation>();
+		allocateScratch();
 
-		for (MapLocation enemy : enemies) {
-			int diffX = Math.abs(enemy.x - me.x);
-			int diffY = Math.abs(enemy.y - me.y);
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int undecided = alive & (isMaxTurn ? roster.footmenMask : roster.archerMask) & ~decided;
 
-			if (range >= (diffX + diffY)) {
-				attackables.add(enemy);
-			}
+		if (undecided == 0) {
+			return 0;
 		}
 
-		return attackables;
+		int slot = Integer.numberOfTrailingZeros(undecided);
+		int count = getAction(slot, unitActions, 0);
+
+		for (int i = 0; i < count; i++) {
+			moves[i] = JointMove.with(JointMove.NONE, slot - base, unitActions[i]);
+		}
+		return count;
 	}
 
 	/**
-	 * Gets all combinations of actions for each set of agent
-	 * 
-	 * @return
+	 * Checks that a move with a single unit action can be played in this
+	 * state by the factored search
+	 *
+	 * @param move
+	 * @return true if generateUnitMoves would produce the move
 	 */
-	private List<Map<Integer, Action>> getActionPairs() {
+	boolean isLegalUnitMove(int move) {
+
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int undecided = alive & (isMaxTurn ? roster.footmenMask : roster.archerMask) & ~decided;
+
+		if (move == JointMove.NONE || undecided == 0) {
+			return false;
+		}
+
+		int slot = Integer.numberOfTrailingZeros(undecided);
+		int action = JointMove.get(move, slot - base);
+
+		// only the next unit to decide may act in it
+		if (move != JointMove.with(JointMove.NONE, slot - base, action)) {
+			return false;
+		}
 
-		List<ArrayList<Action>> actions = new ArrayList<ArrayList<Action>>();
+		allocateScratch();
 
-		if (MinimaxAlphaBeta.isMaxTurn) {
+		int count = getAction(slot, unitActions, 0);
 
-			for (Integer key : footmenLocation.keySet()) {
-				actions.add(getAction(key, footmenLocation.get(key)));
+		for (int i = 0; i < count; i++) {
+			if (unitActions[i] == action) {
+				return true;
 			}
-		} else {
+		}
+		return false;
+	}
+
+	/**
+	 * @param move
+	 *            joint move of the side to move, or some of its unit actions
+	 * @return the slots of the units that act in the move
+	 */
+	private int actingSlots(int move) {
 
-			for (Integer key : archerLocation.keySet()) {
-				MapLocation ml = archerLocation.get(key);
-				actions.add(getAction(key, ml));
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int count = isMaxTurn ? roster.numFootmen : roster.numArchers;
+		int slots = 0;
+
+		for (int i = 0; i < count; i++) {
+			if (JointMove.get(move, i) != JointMove.NONE) {
+				slots |= 1 << (base + i);
 			}
 		}
+		return slots;
+	}
 
-		List<Map<Integer, Action>> actionPairs = new ArrayList<Map<Integer, Action>>();
+	/**
+	 * Removes the joint moves that lead to the same state as an earlier one,
+	 * keeping the earlier one. Units only move to cells they own, so two
+	 * different moves can only meet through their attacks: units of a side
+	 * all hit as hard, and two of them trading targets leave every unit with
+	 * the same HP. Units whose steps fail, see applyMove, can make two moves
+	 * meet as well, which is rare enough to leave to the transposition
+	 * table. A move can only meet another if two of its attackers that
+	 * could have hit something else hit different targets, and only those
+	 * moves are played to compare the keys of their states. The keys go into
+	 * an open addressing hash table, since with more units the moves with
+	 * several attackers can run into the ten thousands.
+	 *
+	 * @param moves
+	 * @param count
+	 *            number of moves in moves
+	 * @param choosers
+	 *            indices within the side of the units with more than one
+	 *            target
+	 * @return number of moves left, at the front of moves in their order
+	 */
+	private int dropTranspositions(int[] moves, int count, int choosers) {
 
-		if (MinimaxAlphaBeta.isMaxTurn) {
+		// at most half full
+		int capacity = Integer.highestOneBit(Math.max(1, count)) << 2;
+		int mask = capacity - 1;
+		int attackCount = 0;
+		int kept = 0;
 
-			if (footmenLocation.size() == 2) {
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			boolean duplicate = false;
 
-				for (int i = 0; i < actions.get(0).size(); i++) {
-					for (int j = 0; j < actions.get(1).size(); j++) {
+			if (tradesTargets(move, choosers)) {
+				if (attackCount == 0) {
+					clearAttackTable(count, capacity);
+				}
 
-						Map<Integer, Action> map = new HashMap<Integer, Action>();
+				makeMove(move);
+				long key = zobristKey;
+				unmakeMove();
+
+				int index = (int) (key ^ (key >>> 32)) & mask;
+
+				while (attackTable[index] != 0 && attackKeys[attackTable[index] - 1] != key) {
+					index = (index + 1) & mask;
+				}
 
-						ArrayList<Integer> keys = new ArrayList<Integer>();
-						for (Integer key : footmenLocation.keySet()) {
-							keys.add(key);
-						}
-						map.put(keys.get(0), actions.get(0).get(i));
-						map.put(keys.get(1), actions.get(1).get(j));
+				duplicate = attackTable[index] != 0;
 
-						actionPairs.add(map);
-					}
+				if (!duplicate) {
+					attackKeys[attackCount++] = key;
+					attackTable[index] = attackCount;
 				}
-				return actionPairs;
-			} else if (footmenLocation.size() == 1) {
+			}
+
+			if (!duplicate) {
+				moves[kept++] = move;
+			}
+		}
+		return kept;
+	}
 
-				for (int i = 0; i < actions.get(0).size(); i++) {
+	/**
+	 * @param move
+	 * @param choosers
+	 *            indices within the side of the units with more than one
+	 *            target
+	 * @return true if two of the choosers attack different targets in the
+	 *         move
+	 */
+	private static boolean tradesTargets(int move, int choosers) {
 
-					Map<Integer, Action> map = new HashMap<Integer, Action>();
+		int target = JointMove.NONE;
 
-					ArrayList<Integer> keys = new ArrayList<Integer>();
-					for (Integer key : footmenLocation.keySet()) {
-						keys.add(key);
-					}
-					map.put(keys.get(0), actions.get(0).get(i));
+		for (int bits = choosers; bits != 0; bits &= bits - 1) {
+			int action = JointMove.get(move, Integer.numberOfTrailingZeros(bits));
 
-					actionPairs.add(map);
+			if (JointMove.isAttack(action)) {
+				if (target != JointMove.NONE && action != target) {
+					return true;
 				}
-				return actionPairs;
+				target = action;
 			}
 		}
-		if (!MinimaxAlphaBeta.isMaxTurn) {
-			if (archerLocation.size() == 2) {
+		return false;
+	}
 
-				for (int i = 0; i < actions.get(0).size(); i++) {
-					for (int j = 0; j < actions.get(1).size(); j++) {
+	/**
+	 * Makes room for the keys of count moves in the scratch space of
+	 * dropTranspositions and empties the first capacity slots of its table
+	 *
+	 * @param count
+	 * @param capacity
+	 */
+	private void clearAttackTable(int count, int capacity) {
 
-						Map<Integer, Action> map = new HashMap<Integer, Action>();
+		if (attackKeys == null || attackKeys.length < count) {
+			attackKeys = new long[count];
+		}
 
-						ArrayList<Integer> keys = new ArrayList<Integer>();
+		if (attackTable == null || attackTable.length < capacity) {
+			attackTable = new int[capacity];
+		} else {
+			Arrays.fill(attackTable, 0, capacity, 0);
+		}
+	}
 
-						for (Integer key : archerLocation.keySet()) {
-							keys.add(key);
-						}
-						map.put(keys.get(0), actions.get(0).get(i));
-						map.put(keys.get(1), actions.get(1).get(j));
+	/**
+	 * Checks that a joint move can be played in this state. Moves remembered
+	 * from other positions, like the transposition table move, are tried
+	 * before any moves are generated, and a different position may share the
+	 * key.
+	 *
+	 * @param move
+	 * @return true if generateMoves would produce the move, or a move that
+	 *         leads to the same state
+	 */
+	boolean isLegal(int move) {
+
+		if (move == JointMove.NONE) {
+			return false;
+		}
 
-						actionPairs.add(map);
-					}
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int enemyBase = isMaxTurn ? roster.numFootmen : 0;
+		int count = isMaxTurn ? roster.numFootmen : roster.numArchers;
+		int enemies = isMaxTurn ? roster.numArchers : roster.numFootmen;
+		int range = isMaxTurn ? roster.footmenAttackRange : roster.archerAttackRange;
+
+		if (count < JointMove.MAX_UNITS && (move >>> (count * JointMove.BITS)) != 0) {
+			return false;
+		}
+
+		for (int i = 0; i < count; i++) {
+
+			int action = JointMove.get(move, i);
+			int slot = base + i;
+
+			// dead units do nothing, live units always act
+			if (!isAlive(slot)) {
+				if (action != JointMove.NONE) {
+					return false;
 				}
-				return actionPairs;
-			} else if (archerLocation.size() == 1) {
+				continue;
+			}
 
-				for (int i = 0; i < actions.get(0).size(); i++) {
+			if (action == JointMove.NONE) {
+				return false;
+			} else if (JointMove.isMove(action)) {
 
-					Map<Integer, Action> map = new HashMap<Integer, Action>();
+				Direction direction = JointMove.direction(action);
 
-					ArrayList<Integer> keys = new ArrayList<Integer>();
+				if (!map.canMove(getX(slot), getY(slot), JointMove.directionIndex(action))
+						|| isOccupied(getX(slot) + direction.xComponent(), getY(slot) + direction.yComponent())) {
+					return false;
+				}
+			} else {
 
-					for (Integer key : archerLocation.keySet()) {
-						keys.add(key);
-					}
-					map.put(keys.get(0), actions.get(0).get(i));
+				int enemy = enemyBase + JointMove.target(action);
 
-					actionPairs.add(map);
+				if (JointMove.target(action) >= enemies || !isAlive(enemy)
+						|| range < Math.abs(getX(enemy) - getX(slot)) + Math.abs(getY(enemy) - getY(slot))) {
+					return false;
 				}
-				return actionPairs;
 			}
 		}
-		return actionPairs;
+		return true;
 	}
 
 	/**
-	 * Executes the action to change the state of the game. Because java doesn't
-	 * have deep copy, i have to manually clone every object.
-	 * 
-	 * @param action
-	 * @return
+	 * Turns a joint move of the side to move back into SEPIA actions
+	 *
+	 * @param move
+	 * @return unit ID to action
 	 */
-	private GameState executeAction(Map<Integer, Action> action) {
+	Map<Integer, Action> getActions(int move) {
 
-		List<MapLocation> me = new ArrayList<MapLocation>();
-		List<Direction> myDir = new ArrayList<Direction>();
-		List<Integer> id = new ArrayList<Integer>();
-		int isDist = 0;
-		int isAttack = 0;
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int enemyBase = isMaxTurn ? roster.numFootmen : 0;
+		int count = isMaxTurn ? roster.numFootmen : roster.numArchers;
 
-		Map<Integer, MapLocation> newFootmenLocation = new HashMap<Integer, MapLocation>();
-		Map<Integer, MapLocation> newArcherLocation = new HashMap<Integer, MapLocation>();
-		List<Integer> newFootmenID = new ArrayList<Integer>();
-		List<Integer> newArcherID = new ArrayList<Integer>();
-		Map<Integer, Integer> newFootmenHP = new HashMap<Integer, Integer>();
-		Map<Integer, Integer> newArcherHP = new HashMap<Integer, Integer>();
-		double newLifeExpectancy = 0.0;
-		double newUtility = 0.0;
+		for (int i = 0; i < count; i++) {
+			int action = JointMove.get(move, i);
+			int id = roster.unitIds[base + i];
 
-		// clone all objects
-		for (Integer newFootmenKey : footmenLocation.keySet()) {
-			MapLocation newMap = new MapLocation(footmenLocation.get(newFootmenKey).x,
-					footmenLocation.get(newFootmenKey).y);
-			newFootmenLocation.put(newFootmenKey.intValue(), newMap);
+			if (JointMove.isMove(action)) {
+				actions.put(id, Action.createPrimitiveMove(id, JointMove.direction(action)));
+			} else if (JointMove.isAttack(action)) {
+				actions.put(id, Action.createPrimitiveAttack(id, roster.unitIds[enemyBase + JointMove.target(action)]));
+			}
 		}
+		return actions;
+	}
 
-		for (Integer newArcherKey : archerLocation.keySet()) {
-			MapLocation newMap = new MapLocation(archerLocation.get(newArcherKey).x,
-					archerLocation.get(newArcherKey).y);
-			newArcherLocation.put(newArcherKey.intValue(), newMap);
-		}
+	/**
+	 * Executes the action on a copy of this state
+	 * 
+	 * @param move
+	 * @return the resulting state
+	 */
+	GameState executeAction(int move) {
 
-		for (Integer footmanID : footmenID) {
-			newFootmenID.add(footmanID);
-		}
+		GameState next = new GameState(this);
+		next.applyMove(move);
+		next.updateUtility();
+		return next;
+	}
 
-		for (Integer archID : archerID) {
-			newArcherID.add(archID);
-		}
+	/**
+	 * Plays a joint move of the side to move on this state. unmakeMove takes
+	 * it back.
+	 *
+	 * The factored search plays the actions of one unit at a time. Those are
+	 * held back as pending, with their keys in the zobrist key so the
+	 * transposition table tells the partly decided states apart, until
+	 * every live unit of the side decided, and then played as one joint
+	 * move. Units act on the state as it was before any of them decided,
+	 * as in a joint move.
+	 *
+	 * @param move
+	 *            a joint move, or the actions of some of the units that have
+	 *            not decided yet
+	 */
+	void makeMove(int move) {
 
-		for (Integer footmanHPKey : footmenHP.keySet()) {
-			newFootmenHP.put(footmanHPKey.intValue(), footmenHP.get(footmanHPKey).intValue());
+		if (undoKeys == null || undoTop == undoKeys.length) {
+			growUndoStack();
 		}
 
-		for (Integer archerHPKey : archerHP.keySet()) {
-			newArcherHP.put(archerHPKey.intValue(), archerHP.get(archerHPKey).intValue());
+		int size = units.length;
+		System.arraycopy(units, 0, undoUnits, undoTop * size, size);
+		System.arraycopy(terms, 0, undoValues, undoTop * (size + 2), size);
+		undoValues[undoTop * (size + 2) + size] = utility;
+		undoValues[undoTop * (size + 2) + size + 1] = lifeExpectancy;
+		undoInts[UNDO_INTS * undoTop] = alive;
+		undoInts[UNDO_INTS * undoTop + 1] = (isMaxTurn ? 1 : 0) | (footmenCornered ? 2 : 0) | (chasing ? 4 : 0);
+		undoInts[UNDO_INTS * undoTop + 2] = staleTerms;
+		undoInts[UNDO_INTS * undoTop + 3] = pending;
+		undoInts[UNDO_INTS * undoTop + 4] = decided;
+		undoInts[UNDO_INTS * undoTop + 5] = lastMove;
+		undoInts[UNDO_INTS * undoTop + 6] = landed;
+		undoKeys[undoTop] = zobristKey;
+		undoTop++;
+
+		int own = alive & (isMaxTurn ? roster.footmenMask : roster.archerMask);
+		int acting = actingSlots(move);
+
+		// a whole joint move, as everything but the factored search plays
+		if (decided == 0 && acting == own) {
+			applyMove(move);
+			return;
 		}
 
-		for (int key : action.keySet()) {
+		int base = isMaxTurn ? 0 : roster.numFootmen;
 
-			if (action.get(key) instanceof DirectedAction) {
+		for (int bits = acting; bits != 0; bits &= bits - 1) {
+			int slot = Integer.numberOfTrailingZeros(bits);
+			zobristKey ^= ZobristHash.decision(slot, JointMove.get(move, slot - base));
+		}
 
-				isDist++;
+		pending |= move;
+		decided |= acting;
 
-				if (MinimaxAlphaBeta.isMaxTurn) {
+		if ((own & ~decided) == 0) {
+			for (int bits = decided; bits != 0; bits &= bits - 1) {
+				int slot = Integer.numberOfTrailingZeros(bits);
+				zobristKey ^= ZobristHash.decision(slot, JointMove.get(pending, slot - base));
+			}
 
-					Set<Integer> fkey = footmenLocation.keySet();
-					for (Integer footmanKey : fkey) {
+			int joint = pending;
+			pending = 0;
+			decided = 0;
+			applyMove(joint);
+		}
+	}
 
-						if (key == footmanKey) {
-							MapLocation ml = new MapLocation(footmenLocation.get(footmanKey).x,
-									footmenLocation.get(footmanKey).y);
-							me.add(ml);
-							id.add(key);
-						}
-					}
-				} else {
+	/**
+	 * @return true if some units of the side to move have decided on their
+	 *         actions and the others have not yet
+	 */
+	boolean isDeciding() {
+		return decided != 0;
+	}
 
-					for (Integer archerKey : archerLocation.keySet()) {
+	/**
+	 * Takes back the last move played with makeMove
+	 */
+	void unmakeMove() {
 
-						if (key == archerKey) {
-							MapLocation ml = new MapLocation(archerLocation.get(archerKey).x,
-									archerLocation.get(archerKey).y);
-							me.add(ml);
-							id.add(key);
-						}
-					}
-				}
+		undoTop--;
 
-				Direction direction = ((DirectedAction) action.get(key)).getDirection();
-				myDir.add(direction);
-			}
+		int size = units.length;
+		int restoredAlive = undoInts[UNDO_INTS * undoTop];
+		// slots the move changed, taken off the grid before they go back
+		int changed = alive ^ restoredAlive;
 
-			if (action.get(key) instanceof TargetedAction) {
-
-				isAttack++;
-
-				TargetedAction targetedAction = (TargetedAction) action.get(key);
-
-				int enemyId = targetedAction.getTargetId();
-				int hp;
-
-				// footman attacking archer
-				if (MinimaxAlphaBeta.isMaxTurn && newArcherHP.size() != 0) {
-					hp = newArcherHP.get(enemyId);
-					hp = hp - footmenAttackPt;
-					newUtility += footmenAttackPt + 2000;
-
-					if (hp < 1) {
-						newArcherLocation.remove(enemyId);
-						newArcherHP.remove(enemyId);
-
-						for (int i = 0; i < newArcherID.size(); i++) {
-							if (newArcherID.get(i) == enemyId) {
-								newArcherID.remove(i);
-							}
-						}
-
-						if (newArcherHP.size() == 0) {
-							newLifeExpectancy = Double.MAX_VALUE;
-						}
-					} else {
-						newArcherHP.remove(enemyId);
-						newArcherHP.put(enemyId, hp);
-					}
-				} else if (!MinimaxAlphaBeta.isMaxTurn && newFootmenHP.size() != 0) {// archer
-																						// attacks
-																						// footman
-					hp = newFootmenHP.get(enemyId);
-					hp = hp - archerAttackPt;
-					newUtility -= archerAttackPt + 2000;
-
-					if (hp < 1) {
-						newFootmenLocation.remove(enemyId);
-						newFootmenHP.remove(enemyId);
-
-						for (int i = 0; i < newFootmenID.size(); i++) {
-							if (newFootmenID.get(i) == enemyId) {
-								newFootmenID.remove(i);
-							}
-						}
-
-						if (newFootmenHP.size() == 0) {
-							newLifeExpectancy = Double.MIN_VALUE;
-						}
-					} else {
-						newFootmenHP.remove(enemyId);
-						newFootmenHP.put(enemyId, hp);
-					}
-				}
+		for (int slot = 0; slot < size; slot++) {
+			if (units[slot] != undoUnits[undoTop * size + slot]) {
+				changed |= 1 << slot;
 			}
 		}
 
-		if (isDist == 2) {
-			// footmen's turn
-			if (MinimaxAlphaBeta.isMaxTurn) {
-				Map<Integer, MapLocation> newFootmenLoc = updateLocation(me, myDir, id);
-				return new GameState(stateView, newFootmenLoc, archerLocation, footmenID, archerID, footmenHP, archerHP,
-						allUnits, footmenAttackRange, archerAttackRange, footmenAttackPt, archerAttackPt,
-						newLifeExpectancy, newUtility, action);
-			} else {
-				Map<Integer, MapLocation> newArcherLoc = updateLocation(me, myDir, id);
-				return new GameState(stateView, footmenLocation, newArcherLoc, footmenID, archerID, footmenHP, archerHP,
-						allUnits, footmenAttackRange, archerAttackRange, footmenAttackPt, archerAttackPt,
-						newLifeExpectancy, newUtility, action);
-			}
+		for (int bits = changed & alive; bits != 0; bits &= bits - 1) {
+			int slot = Integer.numberOfTrailingZeros(bits);
+			occupants[map.cell(getX(slot), getY(slot))] = 0;
 		}
 
-		if (isAttack == 2) {
-			return new GameState(stateView, newFootmenLocation, newArcherLocation, newFootmenID, newArcherID,
-					newFootmenHP, newArcherHP, allUnits, footmenAttackRange, archerAttackRange, footmenAttackPt,
-					archerAttackPt, newLifeExpectancy, newUtility, action);
-		} else {
+		System.arraycopy(undoUnits, undoTop * size, units, 0, size);
+		System.arraycopy(undoValues, undoTop * (size + 2), terms, 0, size);
+		utility = undoValues[undoTop * (size + 2) + size];
+		lifeExpectancy = undoValues[undoTop * (size + 2) + size + 1];
+		alive = restoredAlive;
+		isMaxTurn = (undoInts[UNDO_INTS * undoTop + 1] & 1) != 0;
+		footmenCornered = (undoInts[UNDO_INTS * undoTop + 1] & 2) != 0;
+		chasing = (undoInts[UNDO_INTS * undoTop + 1] & 4) != 0;
+		staleTerms = undoInts[UNDO_INTS * undoTop + 2];
+		pending = undoInts[UNDO_INTS * undoTop + 3];
+		decided = undoInts[UNDO_INTS * undoTop + 4];
+		lastMove = undoInts[UNDO_INTS * undoTop + 5];
+		landed = undoInts[UNDO_INTS * undoTop + 6];
+		zobristKey = undoKeys[undoTop];
+
+		for (int bits = changed & alive; bits != 0; bits &= bits - 1) {
+			int slot = Integer.numberOfTrailingZeros(bits);
+			occupants[map.cell(getX(slot), getY(slot))] = (byte) (slot + 1);
+		}
+	}
 
-			if (MinimaxAlphaBeta.isMaxTurn) {
-				Map<Integer, MapLocation> newFootmenLoc = updateLocation(me, myDir, id);
+	private void growUndoStack() {
 
-				for (Integer key : newFootmenLoc.keySet()) {
+		int capacity = undoKeys == null ? 16 : 2 * undoKeys.length;
+		int[] oldUnits = undoUnits;
+		int[] oldInts = undoInts;
+		long[] oldKeys = undoKeys;
+		double[] oldValues = undoValues;
 
-					MapLocation loc = newFootmenLocation.get(key);
+		undoUnits = new int[capacity * units.length];
+		undoInts = new int[capacity * UNDO_INTS];
+		undoKeys = new long[capacity];
+		undoValues = new double[capacity * (units.length + 2)];
 
-					if (loc != null) {
-						newFootmenLocation.get(key).x = newFootmenLoc.get(key).x;
-						newFootmenLocation.get(key).y = newFootmenLoc.get(key).y;
-					}
-				}
-			} else {
-				Map<Integer, MapLocation> newArcherLoc = updateLocation(me, myDir, id);
+		if (oldKeys != null) {
+			System.arraycopy(oldUnits, 0, undoUnits, 0, oldUnits.length);
+			System.arraycopy(oldInts, 0, undoInts, 0, oldInts.length);
+			System.arraycopy(oldKeys, 0, undoKeys, 0, oldKeys.length);
+			System.arraycopy(oldValues, 0, undoValues, 0, oldValues.length);
+		}
+	}
+
+	/**
+	 * Moves and attacks with every unit of the side to move, hands the turn to
+	 * the other side, updates the cornered latch and marks the heuristic
+	 * terms the move made stale. The units act in slot order, like SEPIA runs
+	 * the actions of a turn one after the other, so when two of them step
+	 * onto the same cell the second one's step fails.
+	 *
+	 * @param move
+	 */
+	private void applyMove(int move) {
 
-				for (Integer key : newArcherLoc.keySet()) {
+		int base = isMaxTurn ? 0 : roster.numFootmen;
+		int enemyBase = isMaxTurn ? roster.numFootmen : 0;
+		int count = isMaxTurn ? roster.numFootmen : roster.numArchers;
+		int previousLanded = landed;
 
-					MapLocation loc = newArcherLocation.get(key);
+		landed = 0;
 
-					if (loc != null) {
-						newArcherLocation.get(key).x = newArcherLoc.get(key).x;
-						newArcherLocation.get(key).y = newArcherLoc.get(key).y;
-					}
+		for (int i = 0; i < count; i++) {
+
+			int action = JointMove.get(move, i);
+			int slot = base + i;
+
+			if (JointMove.isMove(action)) {
+
+				Direction direction = JointMove.direction(action);
+				int x = getX(slot) + direction.xComponent();
+				int y = getY(slot) + direction.yComponent();
+
+				// a unit that stepped there first in this move keeps the
+				// cell, and this one stays where it is, as in SEPIA
+				if (!isOccupied(x, y)) {
+					moveUnit(slot, x, y);
+					landed |= 1 << slot;
+				}
+			} else if (JointMove.isAttack(action)) {
+
+				int enemy = enemyBase + JointMove.target(action);
+
+				if (isAlive(enemy)) {
+					attackUnit(slot, enemy);
+					landed |= 1 << slot;
 				}
 			}
+		}
 
-			return new GameState(stateView, newFootmenLocation, newArcherLocation, newFootmenID, newArcherID,
-					newFootmenHP, newArcherHP, allUnits, footmenAttackRange, archerAttackRange, footmenAttackPt,
-					archerAttackPt, newLifeExpectancy, newUtility, action);
+		lastMove = move;
+		zobristKey ^= ZobristHash.SIDE_TO_MOVE;
+		isMaxTurn = !isMaxTurn;
+
+		// this state is scored with the latch as its parent left it
+		chasing = footmenCornered;
+
+		if (!footmenCornered && HeuristicUtility.footmanNearCorner(this)) {
+			markCornered();
 		}
+
+		HeuristicUtility.invalidate(this, previousLanded);
 	}
 
 	/**
-	 * Used in executeAction to move an agent in a certain direction
-	 * 
-	 * @param me
-	 * @param myDir
-	 * @param id
-	 * @return
+	 * Recomputes the stale heuristic terms, if any, and brings the utility up
+	 * to date. The search calls this on the states it expands, and leaves it
+	 * to getUtility on the leaves, which the evaluation cache may answer
+	 * without it.
 	 */
-	private Map<Integer, MapLocation> updateLocation(List<MapLocation> me, List<Direction> myDir, List<Integer> id) {
-
-		Map<Integer, MapLocation> newLoc = new HashMap<Integer, MapLocation>();
+	void updateUtility() {
 
-		if (me.size() == 2) {
+		if (staleTerms != 0) {
+			HeuristicUtility.update(this);
+		}
+	}
 
-			MapLocation me1 = me.get(0);
-			Direction dir1 = myDir.get(0);
+	/**
+	 * Moves a unit to a new location
+	 *
+	 * @param slot
+	 * @param x
+	 * @param y
+	 */
+	private void moveUnit(int slot, int x, int y) {
 
-			me1.x = me1.x + dir1.xComponent();
-			me1.y = me1.y + dir1.yComponent();
+		zobristKey ^= ZobristHash.location(slot, getX(slot), getY(slot)) ^ ZobristHash.location(slot, x, y);
+		occupants[map.cell(getX(slot), getY(slot))] = 0;
+		occupants[map.cell(x, y)] = (byte) (slot + 1);
+		units[slot] = pack(x, y, getHP(slot));
+	}
 
-			MapLocation me2 = me.get(1);
-			Direction dir2 = myDir.get(1);
+	/**
+	 * One unit attacks another. A unit that drops below 1 HP is removed, and
+	 * the game is over when one side has no units left.
+	 *
+	 * @param attacker
+	 * @param enemy
+	 */
+	private void attackUnit(int attacker, int enemy) {
 
-			me2.x = me2.x + dir2.xComponent();
-			me2.y = me2.y + dir2.yComponent();
+		// the other attacker of this joint action may have killed it already
+		if (!isAlive(enemy)) {
+			return;
+		}
 
-			newLoc.put(id.get(0), me1);
-			newLoc.put(id.get(1), me2);
-		} else if (me.size() == 1) {
+		boolean footman = roster.isFootman(attacker);
+		int attackPt = footman ? roster.footmenAttackPt : roster.archerAttackPt;
+		int hp = getHP(enemy);
 
-			MapLocation mee = me.get(0);
-			Direction dir = myDir.get(0);
+		zobristKey ^= ZobristHash.hp(enemy, hp);
+		hp = hp - attackPt;
 
-			mee.x = mee.x + dir.xComponent();
-			mee.y = mee.y + dir.yComponent();
+		if (hp < 1) {
+			zobristKey ^= ZobristHash.location(enemy, getX(enemy), getY(enemy));
+			occupants[map.cell(getX(enemy), getY(enemy))] = 0;
+			units[enemy] = pack(getX(enemy), getY(enemy), 0);
+			alive &= ~(1 << enemy);
 
-			newLoc.put(id.get(0), mee);
+			if ((alive & roster.archerMask) == 0) {
+				lifeExpectancy = Double.MAX_VALUE;
+			} else if ((alive & roster.footmenMask) == 0) {
+				lifeExpectancy = Double.MIN_VALUE;
+			}
+		} else {
+			zobristKey ^= ZobristHash.hp(enemy, hp);
+			units[enemy] = pack(getX(enemy), getY(enemy), hp);
 		}
-		return newLoc;
 	}
 
 	/**
@@ -647,11 +1035,18 @@ public class GameState {
 	 * Add a good comment about what is in your utility and why you chose those
 	 * features.
 	 *
+	 * The features and their weights are described in HeuristicUtility. The
+	 * sum is kept up to date from the terms makeMove marked stale instead of
+	 * being computed here from scratch. Most features judge the move that led
+	 * to this state, so unlike the zobrist key the utility depends on how the
+	 * state was reached.
+	 *
 	 * @return The weighted linear combination of the features
 	 */
 	public double getUtility() {
 
 		// return new HeuristicUtility(this).getHeuristic();
+		updateUtility();
 		return this.utility;
 	}
 
@@ -676,10 +1071,11 @@ public class GameState {
 
 		ArrayList<GameStateChild> childrenList = new ArrayList<GameStateChild>();
 
-		List<Map<Integer, Action>> act = getActionPairs();
-		for (Map<Integer, Action> action : act) {
-			GameState gs = executeAction(action);
-			GameStateChild newChild = new GameStateChild(action, gs);
+		int[] moves = new int[roster.maxMoves];
+		int count = generateMoves(moves);
+		for (int i = 0; i < count; i++) {
+			GameState gs = executeAction(moves[i]);
+			GameStateChild newChild = new GameStateChild(getActions(moves[i]), gs);
 
 			childrenList.add(newChild);
 
@@ -1,571 +1,527 @@
 package edu.cwru.sepia.agent.minimax;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Stack;
-
-import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.action.DirectedAction;
-import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.util.Direction;
 
 /**
  * This class calculate sthe heuristic of a specific GameState of a GameState
  * child. The heuristic calculation is abstracted away in this class
  *
+ * Most features judge the joint move that led to the state rather than the
+ * state alone:
+ *
+ * - every attack that hit is worth its damage plus ATTACK_BONUS to the side
+ * that made it
+ *
+ * - until a footman has stood next to a corner, every footman that stepped
+ * towards its nearest corner scores STEP_BONUS (cornerTerm)
+ *
+ * - from then on every footman chases the goals chaseTerm assigns it: archers,
+ * or another footman when there are more footmen than archers. A step along a
+ * shortest path scores STEP_BONUS and a step back costs WRONG_WAY. Within two
+ * steps of its goal the footman is scored on cornering the archers instead
+ * (cornerEnemyUtility).
+ *
+ * The cornered latch is GameState.footmenCornered, and a state is scored in
+ * chasing mode once its parent had the latch set (GameState.chasing).
+ *
+ * The obstacles, corners, walking distances and next steps all come from the
+ * MapSnapshot, which was built once at the start of the episode.
+ *
+ * Every feature belongs to one unit: the attack bonus to the unit that hit,
+ * the corner or chase term to each footman. GameState keeps the term of every
+ * slot, and invalidate() marks the terms a move can have changed so update()
+ * only recomputes those.
  */
 public class HeuristicUtility {
 
+	static final double ATTACK_BONUS = 2000;
+	static final double STEP_BONUS = 500;
+	static final double WRONG_WAY = -1000;
+
 	private GameState gameState;
-	private int xExtent;
-	private int yExtent;
 
 	public HeuristicUtility(GameState state) {
 		this.gameState = state;
-		xExtent = gameState.stateView.getXExtent();
-		yExtent = gameState.stateView.getYExtent();
 	}
 
 	/**
-	 * Computes the heuristic using linear weight
-	 * 
+	 * Computes the heuristic using linear weight, from scratch
+	 *
 	 * @return
 	 */
 	public double getHeuristic() {
 
 		double heuristicEstimate = 0.0;
-		heuristicEstimate += distanceUtility();
+
+		for (int slot = 0; slot < gameState.roster.size(); slot++) {
+			heuristicEstimate += unitTerm(gameState, slot);
+		}
 		return heuristicEstimate;
 	}
 
 	/**
-	 * If the enemy is ever at a state where out of the four adjacent locations,
-	 * three are occupied (either out of bound, or has a resource), then the
-	 * agent should be rewarded for going to the last available location to
-	 * block the enemy
-	 * 
-	 * @return
+	 * Computes the term of one unit
+	 *
+	 * @param state
+	 * @param slot
+	 * @return the unit's attack bonus, plus its corner or chase term for a
+	 *         live footman
 	 */
-	private double blockUtility() {
+	static double unitTerm(GameState state, int slot) {
 
-		double blockUtil = 0.0;
+		boolean footman = state.roster.isFootman(slot);
+		double term = 0;
 
-		Map<Integer, MapLocation> archerLoc = gameState.archerLocation;
+		if ((state.landed & (1 << slot)) != 0 && JointMove.isAttack(state.getLastAction(slot))) {
+			term = footman ? state.roster.footmenAttackPt + ATTACK_BONUS
+					: -(state.roster.archerAttackPt + ATTACK_BONUS);
+		}
 
-		List<ArrayList<MapLocation>> openPositionList = new ArrayList<ArrayList<MapLocation>>();
+		if (!footman || !state.isAlive(slot)) {
+			return term;
+		}
+		return term + (state.chasing ? chaseTerm(state, slot) : cornerTerm(state, slot));
+	}
 
-		for (Integer key : archerLoc.keySet()) {
+	/**
+	 * Marks the unit terms of a state that can have changed after a move. A
+	 * footman's term depends on what it did in the last move and, when
+	 * chasing, on the other units, so every footman is marked. An archer's
+	 * term only changes when it hit something in this move or the one
+	 * before.
+	 *
+	 * @param state
+	 * @param previousLanded
+	 *            GameState.landed before the move
+	 */
+	static void invalidate(GameState state, int previousLanded) {
 
-			ArrayList<MapLocation> openPositions = new ArrayList<MapLocation>();
+		UnitRoster roster = state.roster;
+		state.staleTerms |= roster.footmenMask | ((previousLanded | state.landed) & roster.archerMask);
+	}
+
+	/**
+	 * Recomputes the stale unit terms of a state and adjusts its utility by
+	 * the difference
+	 *
+	 * @param state
+	 */
+	static void update(GameState state) {
 
-			MapLocation temp = archerLoc.get(key);
-			openPositions.add(new MapLocation(temp.x, temp.y - 1));
-			openPositions.add(new MapLocation(temp.x, temp.y + 1));
-			openPositions.add(new MapLocation(temp.x - 1, temp.y));
-			openPositions.add(new MapLocation(temp.x + 1, temp.y));
+		for (int bits = state.staleTerms; bits != 0; bits &= bits - 1) {
+			int slot = Integer.numberOfTrailingZeros(bits);
+			double term = unitTerm(state, slot);
 
-			openPositionList.add(openPositions);
+			state.utility += term - state.terms[slot];
+			state.terms[slot] = term;
 		}
+		state.staleTerms = 0;
+	}
+
+	/**
+	 * @param state
+	 * @return true if a footman stands on a corner or next to it, which sets
+	 *         the cornered latch
+	 */
+	static boolean footmanNearCorner(GameState state) {
 
-		List<ArrayList<MapLocation>> newList = new ArrayList<ArrayList<MapLocation>>();
-		for (ArrayList<MapLocation> list : openPositionList) {
+		for (int bits = state.alive & state.roster.footmenMask; bits != 0; bits &= bits - 1) {
+			int footman = Integer.numberOfTrailingZeros(bits);
+			MapLocation corner = nearestCorner(state, footman);
 
-			ArrayList<MapLocation> newLocs = new ArrayList<MapLocation>();
-			for (MapLocation loc : list) {
-				if (gameState.stateView.isResourceAt(loc.x, loc.y) || !gameState.stateView.inBounds(loc.x, loc.y)) {
-					continue;
-				}
-				newLocs.add(loc);
+			if (corner != null && state.map.distances.distance(state.getX(footman), state.getY(footman), corner.x,
+					corner.y) <= 1) {
+				return true;
 			}
-			newList.add(newLocs);
 		}
+		return false;
+	}
 
-		for (ArrayList<MapLocation> list : newList) {
-			if (list.size() == 1) {
+	/**
+	 * If the footman has a possibility of being stuck, it retreats to the
+	 * closest corner
+	 *
+	 * @param state
+	 * @param footman
+	 * @return STEP_BONUS if the footman stepped towards its nearest corner in
+	 *         the last move
+	 */
+	private static double cornerTerm(GameState state, int footman) {
 
-				int bestKey = getClosestFootman(list.get(0));
-				MapLocation bestFootman = gameState.footmenLocation.get(bestKey);
-				blockUtil += aStarSearch(bestFootman, list.get(0), bestKey, gameState.archerID.get(0), false);
-			}
+		int action = state.getLastAction(footman);
+
+		if (!JointMove.isMove(action) || (state.landed & (1 << footman)) == 0) {
+			return 0;
 		}
 
-		return blockUtil;
+		MapLocation corner = nearestCorner(state, footman);
+
+		if (corner == null) {
+			return 0;
+		}
+
+		Direction direction = JointMove.direction(action);
+
+		if ((corner.y == 0 && direction == Direction.NORTH) || (corner.x > 0 && direction == Direction.EAST)
+				|| (corner.y > 0 && direction == Direction.SOUTH) || (corner.x == 0 && direction == Direction.WEST)) {
+			return STEP_BONUS;
+		}
+		return 0;
 	}
 
 	/**
-	 * Give me the location of an archer and I will give you the footmenID of
-	 * the closest footman
-	 * 
-	 * @param archer
-	 * @return
+	 * @param state
+	 * @param footman
+	 * @return the free corner the footman can walk to in the fewest steps,
+	 *         the first of map.corners on a tie, null if there is none
 	 */
-	private int getClosestFootman(MapLocation archer) {
+	private static MapLocation nearestCorner(GameState state, int footman) {
 
-		Map<Integer, MapLocation> footmen = gameState.footmenLocation;
+		int steps = Integer.MAX_VALUE;
+		MapLocation nearest = null;
 
-		int min = Integer.MAX_VALUE;
-		int bestKey = -1;
-		for (Integer key : footmen.keySet()) {
-			AStarSearch aStar = new AStarSearch();
-			Stack<MapLocation> path = aStar.AstarSearch(footmen.get(key), archer, xExtent, yExtent, null,
-					getResources());
-			if (path.size() < min) {
-				min = path.size();
-				bestKey = key;
+		for (MapLocation corner : state.map.corners) {
+			int distance = state.map.distances.distance(state.getX(footman), state.getY(footman), corner.x,
+					corner.y);
+
+			if (distance < steps) {
+				steps = distance;
+				nearest = corner;
 			}
 		}
-
-		return bestKey;
+		return nearest;
 	}
 
 	/**
-	 * See if it's possible to corner an enemy and finish them. Higher utility
-	 * means one step closer to cornering enemy
-	 * 
-	 * @return
+	 * Assigns the footmen their goals and scores the footman's last move
+	 * towards its own. The chasers are the footmen with the highest slots, as
+	 * many as there are archers. In slot order each takes the archer closest
+	 * to it in a straight line that no chaser took before it, and an archer
+	 * left over goes to the chaser closest to it as well. Every other footman
+	 * follows a chaser, the first one the first chaser and so on.
+	 *
+	 * With two footmen and two archers the first footman takes the closer
+	 * archer and the second the other one. With one archer the second footman
+	 * chases it and the first follows the second, and a footman alone chases
+	 * every archer.
+	 *
+	 * @param state
+	 * @param footman
+	 * @return the chase term of a live footman
 	 */
-	private double cornerEnemyUtility() {
+	static double chaseTerm(GameState state, int footman) {
 
-		double cornerUtility = 0.0;
+		int footmen = state.alive & state.roster.footmenMask;
+		int archers = state.alive & state.roster.archerMask;
+		int numArchers = Integer.bitCount(archers);
 
-		double blockUtil = blockUtility();
-		if (blockUtil > 0) {
-			cornerUtility += blockUtil;
-			return cornerUtility;
+		if (numArchers == 0) {
+			return 0;
 		}
 
-		List<MapLocation> corners = getCorners();
-		List<MapLocation> originalFLoc = getOriginalLocList(gameState.gAction);
-
-		int minSize = Integer.MAX_VALUE;
-		List<Stack<MapLocation>> optimalPath = new ArrayList<Stack<MapLocation>>();
+		// drop the lowest footmen, past as many as there are archers
+		int chasers = footmen;
 
-		for (MapLocation loc : corners) {
-			int sumSteps = 0;
-			List<Stack<MapLocation>> tempPath = new ArrayList<Stack<MapLocation>>();
-
-			for (MapLocation originalLoc : originalFLoc) {
-				AStarSearch aStar = new AStarSearch();
-				Stack<MapLocation> path = aStar.AstarSearch(originalLoc, loc, xExtent, yExtent, null, getResources());
-				sumSteps += path.size();
-				tempPath.add(path);
-			}
+		for (int i = Integer.bitCount(footmen) - numArchers; i > 0; i--) {
+			chasers &= chasers - 1;
+		}
 
-			if (sumSteps < minSize) {
-				minSize = sumSteps;
-				optimalPath = tempPath;
-			}
+		if ((chasers & (1 << footman)) == 0) {
+			int follower = Integer.bitCount(footmen & ((1 << footman) - 1));
+			int goal = nthSlot(chasers, follower % numArchers);
+			return chase(state, footman, state.getX(goal), state.getY(goal), true);
 		}
 
-		List<MapLocation> nextSteps = new ArrayList<MapLocation>();
+		int free = archers;
+		int target = -1;
 
-		for (Stack<MapLocation> path : optimalPath) {
+		for (int bits = chasers; bits != 0; bits &= bits - 1) {
+			int chaser = Integer.numberOfTrailingZeros(bits);
+			int archer = closest(state, chaser, free);
+			free &= ~(1 << archer);
 
-			if (path.empty()) {
-				continue;
+			if (chaser == footman) {
+				target = archer;
 			}
-			nextSteps.add(path.pop());
 		}
 
-		List<MapLocation> footmenLoc = new ArrayList<MapLocation>();
+		double term = chase(state, footman, state.getX(target), state.getY(target), true);
 
-		for (Integer key : gameState.footmenLocation.keySet()) {
-			footmenLoc.add(gameState.footmenLocation.get(key));
-		}
+		for (int bits = free; bits != 0; bits &= bits - 1) {
+			int archer = Integer.numberOfTrailingZeros(bits);
 
-		for (MapLocation loc : footmenLoc) {
-			for (MapLocation path : nextSteps) {
-				if (loc.x == path.x && loc.y == path.y) {
-					cornerUtility += 500;
-				}
+			if (closest(state, archer, chasers) == footman) {
+				term += chase(state, footman, state.getX(archer), state.getY(archer), true);
 			}
 		}
-
-		return cornerUtility;
+		return term;
 	}
 
 	/**
-	 * Gets the original location prior to the action
-	 * 
-	 * @param actions
-	 * @return
+	 * @param state
+	 * @param slot
+	 * @param candidates
+	 *            bit mask of slots, not empty
+	 * @return the candidate closest to the unit in a straight line, the lowest
+	 *         slot on a tie
 	 */
-	private List<MapLocation> getOriginalLocList(Map<Integer, Action> actions) {
-
-		List<MapLocation> originalLocList = new ArrayList<MapLocation>();
-		List<Integer> footmenID = gameState.footmenID;
-		Map<Integer, MapLocation> footmenLoc = gameState.footmenLocation;
+	private static int closest(GameState state, int slot, int candidates) {
 
-		for (Integer id : footmenID) {
-			Action act = actions.get(id);
-
-			if (act == null) {
-				continue;
-			}
+		int closest = -1;
+		int min = Integer.MAX_VALUE;
 
-			MapLocation originalLoc = new MapLocation(footmenLoc.get(id).x, footmenLoc.get(id).y);
+		for (int bits = candidates; bits != 0; bits &= bits - 1) {
+			int candidate = Integer.numberOfTrailingZeros(bits);
+			int distance = squaredDistance(state, slot, candidate);
 
-			if (act instanceof DirectedAction) {
-				originalLoc = getOriginalLocation(footmenLoc.get(id), act, originalLoc);
+			if (distance < min) {
+				min = distance;
+				closest = candidate;
 			}
-
-			originalLocList.add(originalLoc);
 		}
-
-		return originalLocList;
+		return closest;
 	}
 
 	/**
-	 * Gets the four corners of the map
-	 * 
-	 * @return
+	 * @param slots
+	 *            bit mask of slots
+	 * @param n
+	 * @return the slot of the nth set bit, counting from 0
 	 */
-	private List<MapLocation> getCorners() {
-
-		List<MapLocation> corners = new ArrayList<MapLocation>();
+	private static int nthSlot(int slots, int n) {
 
-		corners.add(new MapLocation(0, 0));
-		corners.add(new MapLocation(xExtent, 0));
-		corners.add(new MapLocation(0, yExtent - 1));
-		corners.add(new MapLocation(xExtent - 1, yExtent - 1));
-
-		for (MapLocation loc : corners) {
-			if (gameState.stateView.isResourceAt(loc.x, loc.y)) {
-				corners.remove(loc);
-			}
+		for (int i = 0; i < n; i++) {
+			slots &= slots - 1;
 		}
-
-		return corners;
+		return Integer.numberOfTrailingZeros(slots);
 	}
 
 	/**
-	 * If the footman has a possibility of being stuck, it retreats to the
-	 * closest corner
-	 * 
-	 * @return
+	 * @param state
+	 * @param slot
+	 * @param other
+	 * @return the square of the straight line distance between two units
 	 */
-	private double cornerHeuristic() {
+	private static int squaredDistance(GameState state, int slot, int other) {
 
-		double cornerUtility = 0.0;
-
-		List<MapLocation> corners = getCorners();
-		Map<Integer, MapLocation> footmenLoc = gameState.footmenLocation;
-
-		int minSize = Integer.MAX_VALUE;
-		Map<Integer, MapLocation> bestLocs = new HashMap<Integer, MapLocation>();
-
-		for (Integer id : gameState.footmenID) {
-			int steps = Integer.MAX_VALUE;
-			MapLocation bestLoc = null;
-			for (MapLocation loc : corners) {
-				AStarSearch aStar = new AStarSearch();
-				Stack<MapLocation> path = aStar.AstarSearch(footmenLoc.get(id), loc, xExtent, yExtent, null,
-						getResources());
+		int dx = state.getX(other) - state.getX(slot);
+		int dy = state.getY(other) - state.getY(slot);
+		return dx * dx + dy * dy;
+	}
 
-				if (path.size() < steps) {
-					steps = path.size();
-					bestLoc = loc;
-				}
-			}
-			minSize = steps;
-			bestLocs.put(id, bestLoc);
+	/**
+	 * Uses the shortest path to see if the agent is moving closer towards the
+	 * enemy. Especially for footmen, it must locate the archer as soon as
+	 * possible, since archers can shoot far, and footmen can only attack at a
+	 * close distance.
+	 *
+	 * @param state
+	 * @param footman
+	 * @param goalX
+	 * @param goalY
+	 * @param toCorner
+	 *            true to score cornering the archers once the footman is
+	 *            within two steps of the goal
+	 * @return
+	 */
+	static double chase(GameState state, int footman, int goalX, int goalY, boolean toCorner) {
 
-			if (minSize < 1) {
-				MinimaxAlphaBeta.f1Cornered = true;
-			}
+		if (state.lastMove == JointMove.NONE) {
+			return 0;
 		}
 
-		Map<Integer, Action> actions = gameState.gAction;
+		DistanceTable distances = state.map.distances;
+		int x = state.getX(footman);
+		int y = state.getY(footman);
+		int origin = origin(state, footman);
+		int fromX = origin < 0 ? x : origin & 0xFF;
+		int fromY = origin < 0 ? y : origin >>> 8;
+		int distance = distances.distance(fromX, fromY, goalX, goalY);
 
-		if (actions == null) {
+		// already next to the goal, or no way to get there
+		if (distance <= 1 || distance == DistanceTable.UNREACHABLE) {
 			return 0;
 		}
 
-		for (Integer key : bestLocs.keySet()) {
-			Action act = actions.get(key);
+		// stop chasing the archer, corner them and finish them!
+		if (distance <= 2 && toCorner) {
+			return cornerEnemyUtility(state);
+		}
+
+		double term = 0;
 
-			if (act == null) {
-				return 0;
-			}
+		// the step taken is on a shortest path, there is usually more than one
+		if (distances.distance(x, y, goalX, goalY) == distance - 1) {
+			term = STEP_BONUS;
+		}
 
-			MapLocation bestLoc = bestLocs.get(key);
+		// penalizes stepping the opposite way of the first step of the
+		// shortest path
+		int backX = 2 * fromX - x;
+		int backY = 2 * fromY - y;
 
-			if (bestLoc.y == 0 && act.toString().contains("NORTH")) {
-				cornerUtility += 500;
-			}
-			if (bestLoc.x > 0 && act.toString().contains("EAST")) {
-				cornerUtility += 500;
-			}
-			if (bestLoc.y > 0 && act.toString().contains("SOUTH")) {
-				cornerUtility += 500;
-			}
-			if (bestLoc.x == 0 && act.toString().contains("WEST")) {
-				cornerUtility += 500;
-			}
+		if ((fromX != x || fromY != y) && state.map.inBounds(backX, backY)
+				&& distances.nextStep(fromX, fromY, goalX, goalY) == state.map.cell(backX, backY)) {
+			term += WRONG_WAY;
 		}
-		return cornerUtility;
+		return term;
 	}
 
 	/**
-	 * Calculates the utility of the state based on the number of footmen and
-	 * archers still alive
-	 * 
-	 * @return
+	 * See if it's possible to corner an enemy and finish them. Higher utility
+	 * means one step closer to cornering enemy
+	 *
+	 * @param state
+	 * @return the block utility when there is an archer to block in,
+	 *         otherwise STEP_BONUS for every footman that stands on the next
+	 *         step of some footman towards the corner closest to all of them
 	 */
-	private double distanceUtility() {
+	private static double cornerEnemyUtility(GameState state) {
 
-		Set<MapLocation> resources = getResources();
+		double blockUtil = blockUtility(state);
 
-		if (resources != null && !MinimaxAlphaBeta.f1Cornered) {
-			return cornerHeuristic();
+		if (blockUtil > 0) {
+			return blockUtil;
 		}
 
-		double distUtility = 0.0;
-		int numFootmen = gameState.footmenLocation.size();
-		int numArchers = gameState.archerLocation.size();
-
-		if (numFootmen == 2 && numArchers == 2) {
-			MapLocation footman1 = gameState.footmenLocation.get(gameState.footmenID.get(0));
-
-			double tempBest = Double.POSITIVE_INFINITY;
-			int index = -1;
-
-			for (Integer key : gameState.archerLocation.keySet()) {
-				double temp = getDistance(footman1, gameState.archerLocation.get(key));
-
-				if (temp < tempBest) {
-					tempBest = temp;
-					index = key;
-				}
-			}
-
-			distUtility += aStarSearch(footman1, gameState.archerLocation.get(index), gameState.footmenID.get(0), index,
-					true);
+		DistanceTable distances = state.map.distances;
+		int footmen = state.alive & state.roster.footmenMask;
+		int minSteps = Integer.MAX_VALUE;
+		MapLocation bestCorner = null;
 
-			for (Integer key : gameState.archerLocation.keySet()) {
+		// the corner the footmen that moved last were closest to, all together
+		for (MapLocation corner : state.map.corners) {
+			int steps = 0;
 
-				if (key != index) {
-					distUtility += aStarSearch(gameState.footmenLocation.get(gameState.footmenID.get(1)),
-							gameState.archerLocation.get(key), gameState.footmenID.get(1), key, true);
-				}
-			}
-
-		} else if (numFootmen == 2 && numArchers == 1) {
-			MapLocation footman1 = gameState.footmenLocation.get(gameState.footmenID.get(1));
-			MapLocation footman2 = gameState.footmenLocation.get(gameState.footmenID.get(0));
-			MapLocation archer = null;
-			int index = -1;
+			for (int bits = footmen; bits != 0; bits &= bits - 1) {
+				int origin = origin(state, Integer.numberOfTrailingZeros(bits));
 
-			for (Integer key : gameState.archerLocation.keySet()) {
-
-				MapLocation temp = gameState.archerLocation.get(key);
-
-				if (temp != null) {
-					archer = temp;
-					index = key;
+				if (origin != -1) {
+					steps += distances.distance(origin & 0xFF, origin >>> 8, corner.x, corner.y);
 				}
 			}
 
-			distUtility += aStarSearch(footman1, archer, gameState.footmenID.get(1), index, true);
-			distUtility += aStarSearch(footman2, footman1, gameState.footmenID.get(0), index, true);
-
-		} else if (numFootmen == 1 && numArchers == 2) {
-			MapLocation archer1 = gameState.archerLocation.get(gameState.archerID.get(0));
-			MapLocation archer2 = gameState.archerLocation.get(gameState.archerID.get(1));
-			MapLocation footman = null;
-			int index = -1;
-
-			for (Integer key : gameState.footmenLocation.keySet()) {
-
-				MapLocation temp = gameState.footmenLocation.get(key);
-
-				if (temp != null) {
-					footman = temp;
-					index = key;
-				}
+			if (steps < minSteps) {
+				minSteps = steps;
+				bestCorner = corner;
 			}
+		}
 
-			distUtility += aStarSearch(footman, archer1, index, gameState.archerID.get(0), true);
-			distUtility += aStarSearch(footman, archer2, index, gameState.archerID.get(1), true);
-
-		} else if (numFootmen == 1 && numArchers == 1) {
-			MapLocation footman = null;
-			MapLocation archer = null;
-			int fIndex = -1;
-			int aIndex = -1;
+		if (bestCorner == null) {
+			return 0;
+		}
 
-			for (Integer key : gameState.footmenLocation.keySet()) {
+		double cornerUtility = 0.0;
 
-				MapLocation temp = gameState.footmenLocation.get(key);
+		for (int bits = footmen; bits != 0; bits &= bits - 1) {
+			int origin = origin(state, Integer.numberOfTrailingZeros(bits));
+			int next = origin == -1 ? -1
+					: distances.nextStep(origin & 0xFF, origin >>> 8, bestCorner.x, bestCorner.y);
 
-				if (temp != null) {
-					footman = temp;
-					fIndex = key;
-				}
+			if (next < 0) {
+				continue;
 			}
 
-			for (Integer key : gameState.archerLocation.keySet()) {
-
-				MapLocation temp = gameState.archerLocation.get(key);
+			for (int others = footmen; others != 0; others &= others - 1) {
+				int other = Integer.numberOfTrailingZeros(others);
 
-				if (temp != null) {
-					archer = temp;
-					aIndex = key;
+				if (state.map.cell(state.getX(other), state.getY(other)) == next) {
+					cornerUtility += STEP_BONUS;
 				}
 			}
-
-			distUtility += aStarSearch(footman, archer, fIndex, aIndex, true);
 		}
-
-		return distUtility;
+		return cornerUtility;
 	}
 
 	/**
-	 * Computes the pythagorean theorem distance between two MapLocations
-	 * 
-	 * @param me
-	 * @param enemy
+	 * If the enemy is ever at a state where out of the four adjacent locations,
+	 * three are occupied (either out of bound, or has a resource), then the
+	 * agent should be rewarded for going to the last available location to
+	 * block the enemy
+	 *
+	 * @param state
 	 * @return
 	 */
-	private double getDistance(MapLocation me, MapLocation enemy) {
+	private static double blockUtility(GameState state) {
 
-		int me_x = me.x;
-		int me_y = me.y;
-		int enemy_x = enemy.x;
-		int enemy_y = enemy.y;
+		double blockUtil = 0.0;
 
-		double a = Math.pow(enemy_x - me_x, 2);
-		double b = Math.pow(enemy_y - me_y, 2);
-		double c = Math.sqrt(a + b);
+		for (int archers = state.alive & state.roster.archerMask; archers != 0; archers &= archers - 1) {
+			int archer = Integer.numberOfTrailingZeros(archers);
+			int free = 0;
+			int openX = 0;
+			int openY = 0;
 
-		return c;
-	}
+			for (int i = 0; i < JointMove.DIRECTIONS.length; i++) {
+				int x = state.getX(archer) + JointMove.DIRECTIONS[i].xComponent();
+				int y = state.getY(archer) + JointMove.DIRECTIONS[i].yComponent();
 
-	/**
-	 * Gets all the resources on a map
-	 * 
-	 * @return
-	 */
-	private Set<MapLocation> getResources() {
+				if (state.map.isFree(x, y)) {
+					free++;
+					openX = x;
+					openY = y;
+				}
+			}
 
-		List<Integer> resourceIDs = gameState.stateView.getAllResourceIds();
-		Set<MapLocation> resourceLocations = new HashSet<MapLocation>();
-		for (Integer resourceID : resourceIDs) {
-			ResourceNode.ResourceView resource = gameState.stateView.getResourceNode(resourceID);
+			if (free == 1) {
+				int footman = closestFootman(state, openX, openY);
 
-			resourceLocations.add(new MapLocation(resource.getXPosition(), resource.getYPosition()));
+				if (footman >= 0) {
+					blockUtil += chase(state, footman, openX, openY, false);
+				}
+			}
 		}
-
-		return resourceLocations;
+		return blockUtil;
 	}
 
 	/**
-	 * Uses the AStarSearch algorithm to see if the agent is moving closer
-	 * towards the enemy. Especially for footmen, it must locate the archer as
-	 * soon as possible, since archers can shoot far, and footmen can only
-	 * attack at a close distance.
-	 * 
-	 * @param start
-	 * @param goal
-	 * @param footmanKey
-	 * @param archerKey
-	 * @param toCorner
-	 * @return
+	 * @param state
+	 * @param x
+	 * @param y
+	 * @return the slot of the live footman with the fewest steps to the
+	 *         location, the first one on a tie, -1 if there is none
 	 */
-	private double aStarSearch(MapLocation start, MapLocation goal, int footmanKey, int archerKey, boolean toCorner) {
-
-		double aStarUtility = 0.0;
-
-		Map<Integer, Action> action = gameState.gAction;
-
-		if (action == null) {
-			return 0;
-		}
-
-		// clone start location
-		MapLocation originalStart = new MapLocation(start.x, start.y);
-		Action footmanAction = action.get(footmanKey);
-
-		if (footmanAction instanceof DirectedAction) {
-			originalStart = getOriginalLocation(start, footmanAction, originalStart);
-		} else {
-			originalStart = start;
-		}
+	private static int closestFootman(GameState state, int x, int y) {
 
-		AStarSearch aStar = new AStarSearch();
-		Stack<MapLocation> path = aStar.AstarSearch(originalStart, goal, xExtent, yExtent, null, getResources());
-
-		if (path.isEmpty()) {
-			return 0;
-		}
-
-		// stop chasing the archer, corner them and finish them!
-		if (path.size() <= 1 && toCorner) {
-			aStarUtility += cornerEnemyUtility();
-			return aStarUtility;
-		}
+		int min = Integer.MAX_VALUE;
+		int closest = -1;
 
-		MapLocation nextLocation = path.pop();
+		for (int bits = state.alive & state.roster.footmenMask; bits != 0; bits &= bits - 1) {
+			int footman = Integer.numberOfTrailingZeros(bits);
+			int distance = state.map.distances.distance(state.getX(footman), state.getY(footman), x, y);
 
-		if (nextLocation.x == start.x && nextLocation.y == start.y) {
-			aStarUtility = 500;
+			if (distance < min) {
+				min = distance;
+				closest = footman;
+			}
 		}
-
-		aStarUtility += penaltyForNegativeAction(footmanAction, start, nextLocation);
-
-		return aStarUtility;
+		return closest;
 	}
 
 	/**
-	 * Penalizes the agent if it tries to go in the opposite direction than the
-	 * optimal direction
-	 * 
-	 * @param action
-	 * @param start
-	 * @param nextLoc
-	 * @return
+	 * Gets the original location prior to the action
+	 *
+	 * @param state
+	 * @param footman
+	 * @return x | y << 8 of where the footman stood before the last move, or
+	 *         -1 if its side did not make the last move
 	 */
-	private double penaltyForNegativeAction(Action action, MapLocation start, MapLocation nextLoc) {
+	private static int origin(GameState state, int footman) {
 
-		double negativeActUtility = 0.0;
+		int action = state.getLastAction(footman);
 
-		if (!(action instanceof DirectedAction)) {
-			return 0;
+		if (action == JointMove.NONE) {
+			return -1;
 		}
 
-		int xDiff = Math.abs(start.x - nextLoc.x);
-		int yDiff = Math.abs(start.y - nextLoc.y);
+		int x = state.getX(footman);
+		int y = state.getY(footman);
 
-		if (xDiff == 2 || yDiff == 2) {
-			negativeActUtility += -1000;
+		if (JointMove.isMove(action) && (state.landed & (1 << footman)) != 0) {
+			Direction direction = JointMove.direction(action);
+			x -= direction.xComponent();
+			y -= direction.yComponent();
 		}
-
-		return negativeActUtility;
-	}
-
-	/**
-	 * Gets the original location prior to the action
-	 * 
-	 * @param start
-	 * @param action
-	 * @param newStart
-	 * @return
-	 */
-	private MapLocation getOriginalLocation(MapLocation start, Action action, MapLocation newStart) {
-
-		if (action.toString().contains("NORTH")) {
-			newStart.y += 1;
-		} else if (action.toString().contains("EAST")) {
-			newStart.x -= 1;
-		} else if (action.toString().contains("SOUTH")) {
-			newStart.y -= 1;
-		} else if (action.toString().contains("WEST")) {
-			newStart.x += 1;
-		}
-
-		return newStart;
+		return x | (y << 8);
 	}
 }
@@ -0,0 +1,83 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * History heuristic for ordering quiet moves. Every unit action that was part
+ * of a joint move causing a beta cutoff is rewarded with the square of the
+ * remaining depth, and a joint move scores the sum of its unit actions. The
+ * table is keyed on the unit slot and the unit action, which covers the action
+ * type and the direction or target.
+ *
+ * The workers of the parallel root search share one table without locking. A
+ * lost increment only makes the ordering slightly worse.
+ */
+final class HistoryTable {
+
+	// keeps scores far enough from overflowing when summed over a joint move
+	private static final int MAX_SCORE = 1 << 24;
+
+	private final int[] scores;
+
+	/**
+	 * @param units
+	 *            number of unit slots
+	 */
+	HistoryTable(int units) {
+		this.scores = new int[units * (JointMove.MASK + 1)];
+	}
+
+	/**
+	 * @param move
+	 * @param base
+	 *            slot of the first unit of the side making the move
+	 * @param units
+	 *            number of units of that side
+	 * @return the summed history of the move's unit actions
+	 */
+	int score(int move, int base, int units) {
+
+		int score = 0;
+
+		for (int i = 0; i < units; i++) {
+			int action = JointMove.get(move, i);
+
+			if (action != JointMove.NONE) {
+				score += scores[index(base + i, action)];
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Rewards the unit actions of a move that caused a cutoff
+	 *
+	 * @param move
+	 * @param base
+	 * @param units
+	 * @param depth
+	 *            remaining depth at the cutoff
+	 */
+	void reward(int move, int base, int units, int depth) {
+
+		for (int i = 0; i < units; i++) {
+			int action = JointMove.get(move, i);
+
+			if (action != JointMove.NONE) {
+				int index = index(base + i, action);
+				scores[index] = Math.min(MAX_SCORE, scores[index] + depth * depth);
+			}
+		}
+	}
+
+	/**
+	 * Halves every score, so what was learned on earlier turns fades out
+	 */
+	void age() {
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] >>= 1;
+		}
+	}
+
+	private static int index(int slot, int action) {
+		return slot * (JointMove.MASK + 1) + action;
+	}
+}
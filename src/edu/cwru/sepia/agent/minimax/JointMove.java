@@ -0,0 +1,108 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Joint actions of one side packed into an int, so the search can generate,
+ * store and compare them without allocating. Every unit of the side to move
+ * gets 4 bits, indexed by its position among that side's slots. A unit action
+ * is one of:
+ *
+ * NONE: the unit does nothing (dead units, or the root which has no move)
+ * 1 to 4: move north, east, south or west
+ * ATTACK + i: attack the i-th unit of the other side
+ *
+ * which limits a side to 8 units and 11 enemies. UnitRoster turns down
+ * anything bigger.
+ */
+final class JointMove {
+
+	static final int NONE = 0;
+	static final int ATTACK = 5;
+	static final int BITS = 4;
+	static final int MASK = (1 << BITS) - 1;
+	static final int MAX_UNITS = 32 / BITS;
+
+	// the four directions a unit may move in, in the order they are generated
+	static final Direction[] DIRECTIONS = { Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST };
+
+	private JointMove() {
+	}
+
+	/**
+	 * @param move
+	 * @param unit
+	 *            index of the unit within its side
+	 * @return the action of that unit
+	 */
+	static int get(int move, int unit) {
+		return (move >>> (unit * BITS)) & MASK;
+	}
+
+	/**
+	 * @param move
+	 * @param unit
+	 *            index of the unit within its side
+	 * @param action
+	 * @return the joint move with that unit's action replaced
+	 */
+	static int with(int move, int unit, int action) {
+		int shift = unit * BITS;
+		return (move & ~(MASK << shift)) | (action << shift);
+	}
+
+	static int move(int directionIndex) {
+		return 1 + directionIndex;
+	}
+
+	static int attack(int enemy) {
+		return ATTACK + enemy;
+	}
+
+	static boolean isMove(int action) {
+		return action != NONE && action < ATTACK;
+	}
+
+	static boolean isAttack(int action) {
+		return action >= ATTACK;
+	}
+
+	static Direction direction(int action) {
+		return DIRECTIONS[directionIndex(action)];
+	}
+
+	/**
+	 * @param action
+	 *            a move
+	 * @return index of its direction in DIRECTIONS
+	 */
+	static int directionIndex(int action) {
+		return action - 1;
+	}
+
+	/**
+	 * Counts the attacks in all units at once: an action is an attack when it
+	 * is at least ATTACK, 5, which is when its top bit is set, or the bit
+	 * under it and one of the lowest two
+	 *
+	 * @param move
+	 * @return number of units attacking in the joint move
+	 */
+	static int attackers(int move) {
+
+		int lowest = move & 0x11111111;
+		int second = (move >>> 1) & 0x11111111;
+		int third = (move >>> 2) & 0x11111111;
+		int top = (move >>> 3) & 0x11111111;
+
+		return Integer.bitCount(top | (third & (second | lowest)));
+	}
+
+	/**
+	 * @param action
+	 * @return index of the attacked unit within the other side
+	 */
+	static int target(int action) {
+		return action - ATTACK;
+	}
+}
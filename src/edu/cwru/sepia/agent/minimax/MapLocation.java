@@ -26,7 +26,7 @@ class MapLocation implements Comparable<MapLocation> {
 
 	@Override
 	public int compareTo(MapLocation otherMapLocation) {
-		return new Double(this.heuristicCost).compareTo(otherMapLocation.heuristicCost);
+		return Double.compare(this.functionCost, otherMapLocation.functionCost);
 	}
 
 	@Override
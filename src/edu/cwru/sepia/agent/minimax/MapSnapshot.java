@@ -0,0 +1,117 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.State;
+
+/**
+ * Everything about the map that does not change during an episode, read from
+ * the SEPIA state once in initialStep and shared by reference with every
+ * GameState. Resources never move, so the obstacles are a bit set over the
+ * cells (y * xExtent + x), and for every cell a mask says in which of the
+ * JointMove.DIRECTIONS a unit can step without leaving the map or walking into
+ * a resource. The free corners and the walking distances are computed here as
+ * well.
+ */
+final class MapSnapshot {
+
+	final int xExtent;
+	final int yExtent;
+	// corners of the map without a resource on them, unmodifiable
+	final List<MapLocation> corners;
+	final DistanceTable distances;
+	// bit per cell, set when a resource is on it
+	private final long[] obstacles;
+	// per cell, bit i set when a unit can move in JointMove.DIRECTIONS[i]
+	private final byte[] directionMasks;
+
+	/**
+	 * @param state
+	 *            first state of the episode
+	 */
+	MapSnapshot(State.StateView state) {
+		this.xExtent = state.getXExtent();
+		this.yExtent = state.getYExtent();
+		this.obstacles = new long[(xExtent * yExtent + 63) >>> 6];
+		this.directionMasks = new byte[xExtent * yExtent];
+
+		for (int y = 0; y < yExtent; y++) {
+			for (int x = 0; x < xExtent; x++) {
+				if (state.isResourceAt(x, y)) {
+					int cell = cell(x, y);
+					obstacles[cell >>> 6] |= 1L << cell;
+				}
+			}
+		}
+
+		for (int y = 0; y < yExtent; y++) {
+			for (int x = 0; x < xExtent; x++) {
+				int mask = 0;
+
+				for (int i = 0; i < JointMove.DIRECTIONS.length; i++) {
+					if (isFree(x + JointMove.DIRECTIONS[i].xComponent(), y + JointMove.DIRECTIONS[i].yComponent())) {
+						mask |= 1 << i;
+					}
+				}
+				directionMasks[cell(x, y)] = (byte) mask;
+			}
+		}
+
+		List<MapLocation> freeCorners = new ArrayList<MapLocation>();
+		addCorner(freeCorners, 0, 0);
+		addCorner(freeCorners, xExtent - 1, 0);
+		addCorner(freeCorners, 0, yExtent - 1);
+		addCorner(freeCorners, xExtent - 1, yExtent - 1);
+		this.corners = Collections.unmodifiableList(freeCorners);
+
+		this.distances = new DistanceTable(this);
+	}
+
+	private void addCorner(List<MapLocation> corners, int x, int y) {
+
+		if (isFree(x, y)) {
+			corners.add(new MapLocation(x, y));
+		}
+	}
+
+	int cell(int x, int y) {
+		return y * xExtent + x;
+	}
+
+	int cells() {
+		return xExtent * yExtent;
+	}
+
+	boolean inBounds(int x, int y) {
+		return x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return true if the location is on the map and has no resource on it
+	 */
+	boolean isFree(int x, int y) {
+
+		if (!inBounds(x, y)) {
+			return false;
+		}
+
+		int cell = cell(x, y);
+		return (obstacles[cell >>> 6] & (1L << cell)) == 0;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 *            a location on the map
+	 * @param direction
+	 *            index into JointMove.DIRECTIONS
+	 * @return true if the step lands on a free location, other units aside
+	 */
+	boolean canMove(int x, int y, int direction) {
+		return (directionMasks[cell(x, y)] & (1 << direction)) != 0;
+	}
+}
@@ -0,0 +1,33 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+
+/**
+ * Reads the map files in data/ the way SEPIA's Main2 does, so the agent can be
+ * run on them without SEPIA's runner
+ */
+final class Maps {
+
+	private Maps() {
+	}
+
+	/**
+	 * @param file
+	 *            a map file, for example data/Game2fv2a.xml
+	 * @return the first state of the map, seen by player 0, the footmen
+	 * @throws JAXBException
+	 *             if the file cannot be read
+	 */
+	static State.StateView load(File file) throws JAXBException {
+
+		XmlState xml = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller().unmarshal(file);
+		return new XmlStateCreator(xml).createState().getView(0);
+	}
+}
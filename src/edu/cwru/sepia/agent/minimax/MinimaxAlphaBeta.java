@@ -3,8 +3,20 @@ package edu.cwru.sepia.agent.minimax;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.agent.Agent;
@@ -13,10 +25,56 @@ import edu.cwru.sepia.environment.model.state.State;
 
 public class MinimaxAlphaBeta extends Agent {
 
+	// most joint moves a side may have in the joint search, which keeps a
+	// list of them for every ply, up to 6 units against 6
+	static final int MAX_JOINT_MOVES = 1 << 20;
+
+	// deepest iteration of the iterative deepening search
 	private final int numPlys;
-	public static boolean isMaxTurn = false;
-	public static boolean f1Cornered = false;
-	public static boolean f2Cornered = false;
+	private final SearchOptions options;
+	// principal variation search instead of plain alpha beta, see SearchOptions
+	private final boolean pvs;
+	private final TranspositionTable transpositionTable = new TranspositionTable();
+	// memory of the mtdf search, which uses it instead of the transposition
+	// table, null for the other searches
+	private final BoundTable boundTable;
+	// workers of the parallel root search, null when searching on one thread
+	private final ForkJoinPool pool;
+	// evaluations of leaves, kept for the whole episode, null when turned off
+	private final EvaluationCache evaluationCache;
+	// System.nanoTime() at which the current iteration gives up
+	private volatile long deadline = Long.MAX_VALUE;
+	// best line found by the last completed iteration, one joint move per ply
+	private int[] principalVariation = new int[0];
+	// best line found by the running iteration
+	private int[] rootLine = new int[0];
+	// zobrist key of the state the last turn's principal variation expects
+	// the archers to leave, and the rest of the line from there
+	private long expectedKey = 0;
+	private int[] expectedLine = new int[0];
+	private GameState expectedState;
+	// thread that searches the expected state between turns, null unless the
+	// ponder option is on, kept for every episode the agent plays
+	private final ThreadPoolExecutor ponderThread;
+	// the running ponder search, null when not pondering
+	private Future<?> ponderTask;
+	// deepest iteration the ponder search completed, and its line
+	private int ponderDepth;
+	private int[] ponderLine;
+	// turns that started with the state that was pondered
+	private int ponderHits;
+	// once a footman has been cornered the heuristic stays in chasing mode
+	private boolean footmenCornered = false;
+	// unit slots of the episode, assigned in initialStep
+	private UnitRoster roster;
+	// history scores of the quiet moves, kept from turn to turn
+	private HistoryTable history;
+	// obstacles, corners and distances of the map, built in initialStep
+	private MapSnapshot map;
+	// states the search visited, added up by the workers
+	private final LongAdder nodes = new LongAdder();
+	// counters of the search, null unless the stats option is on
+	private final SearchStats stats;
 
 	public MinimaxAlphaBeta(int playernum, String[] args) {
 		super(playernum);
@@ -27,25 +85,462 @@ public class MinimaxAlphaBeta extends Agent {
 		}
 
 		numPlys = Integer.parseInt(args[0]);
+		options = new SearchOptions(args, 1);
+		pool = options.threads > 1 ? new ForkJoinPool(options.threads) : null;
+		evaluationCache = options.evalCacheSize > 0 ? new EvaluationCache(options.evalCacheSize) : null;
+		stats = options.stats ? new SearchStats() : null;
+		pvs = options.search.equals(SearchOptions.PVS);
+		boundTable = options.search.equals(SearchOptions.MTDF) ? new BoundTable() : null;
+		ponderThread = options.ponder ? new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "minimax-ponder");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}) : null;
+
+		// the thread ends when the agent stops pondering for a while, as an
+		// agent that played its last episode does
+		if (ponderThread != null) {
+			ponderThread.allowCoreThreadTimeOut(true);
+		}
 	}
 
 	@Override
 	public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+		prepare(newstate);
 		return middleStep(newstate, statehistory);
 	}
 
+	/**
+	 * Reads what stays the same during the episode from its first state
+	 *
+	 * @param newstate
+	 *            first state of the episode
+	 */
+	void prepare(State.StateView newstate) {
+		prepare(new UnitRoster(newstate), new MapSnapshot(newstate));
+	}
+
+	/**
+	 * Starts an episode with a roster and a map that were already read, which
+	 * the self-play runner shares between all of its episodes on a map. SEPIA
+	 * plays every episode with the same agent, so nothing the last episode
+	 * left about its lines and its chase carries over. The transposition
+	 * table does, its positions do not depend on the episode.
+	 *
+	 * @param roster
+	 * @param map
+	 */
+	void prepare(UnitRoster roster, MapSnapshot map) {
+
+		if (!options.factored && roster.maxMoves > MAX_JOINT_MOVES) {
+			throw new IllegalArgumentException("A side has up to " + roster.maxMoves
+					+ " joint moves, more than the joint search holds, search with factored=true");
+		}
+
+		this.roster = roster;
+		this.map = map;
+		this.history = new HistoryTable(roster.size());
+		this.footmenCornered = false;
+		this.principalVariation = new int[0];
+		this.rootLine = new int[0];
+		this.expectedKey = 0;
+		this.expectedLine = new int[0];
+		this.expectedState = null;
+		this.ponderDepth = 0;
+		this.ponderLine = null;
+	}
+
+	/**
+	 * Plays the joint move chooseMove finds for the footmen
+	 */
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
 
-		GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate), numPlys, Double.NEGATIVE_INFINITY,
-				Double.POSITIVE_INFINITY);
+		GameState root = new GameState(newstate, roster, map);
+		int move = chooseMove(root);
+		return move == JointMove.NONE ? null : root.getActions(move);
+	}
+
+	/**
+	 * Searches one ply deeper at a time until numPlys is reached or the time
+	 * budget runs out, and picks the best move of the last completed
+	 * iteration. Every iteration starts with the principal variation of the
+	 * previous one, so the deeper search usually finds its cutoffs early.
+	 *
+	 * @param state
+	 *            state of the turn, with the footmen to move
+	 * @return the joint move of the footmen to play, or JointMove.NONE if they
+	 *         have none
+	 */
+	int chooseMove(GameState state) {
+
+		long start = System.nanoTime();
+
+		if (footmenCornered) {
+			state.markCornered();
+		}
+		footmenCornered = state.footmenCornered;
+
+		int ponderedDepth = stopPondering(state);
+		GameStateChild root = new GameStateChild(null, state);
+		// a pondered iteration is taken as it is and the search goes on deeper
+		int firstDepth = ponderedDepth > 0 ? ponderedDepth + 1 : firstDepth(state);
+		int completedDepth = Math.min(ponderedDepth, numPlys);
+		// values of the last two completed iterations, NaN before them
+		double value = Double.NaN;
+		double older = Double.NaN;
+		history.age();
+
+		for (int depth = firstDepth; depth <= numPlys; depth++) {
+
+			// the first iteration always completes so there is a move to play,
+			// unless pondering left one, whose move is played on a timeout
+			deadline = ((depth == firstDepth && ponderedDepth == 0) || options.timeBudget <= 0) ? Long.MAX_VALUE
+					: start + options.timeBudget * 1000000L;
+
+			try {
+				GameStateChild child = searchIteration(root, depth, Double.isNaN(older) ? value : older);
+
+				// no moves, or the game is already over
+				if (child == null || child == root) {
+					break;
+				}
+				completedDepth = depth;
+				older = value;
+				value = child.state.utility;
+				principalVariation = rootLine;
+			} catch (SearchTimeoutException e) {
+				break;
+			}
+		}
+
+		deadline = Long.MAX_VALUE;
+
+		if (stats != null) {
+			stats.endTurn(firstDepth, completedDepth, System.nanoTime() - start, evaluationCache);
+		}
+
+		int move = firstMove(state, principalVariation);
+
+		expectReply(state);
+		startPondering();
+
+		// the line of the last completed iteration starts with its best move
+		return move;
+	}
+
+	/**
+	 * Runs one iteration of the iterative deepening. With the mtdf search the
+	 * guess is where its first null window goes. Otherwise, once there is a
+	 * guess and the aspirationWindow option is set, the search starts with a
+	 * window of that width on both sides of it, since a narrow window cuts
+	 * off more. A value outside the window is only a bound, so the side it
+	 * fell out of is opened up and the iteration searched again.
+	 *
+	 * The guess is the value of the iteration two before, when there is one.
+	 * An iteration that ends on a footmen ply sees their next attack but not
+	 * the archers' answer, so its value swings away from the one before and
+	 * back with the next, and the iteration with the same side last is the
+	 * closer guess.
+	 *
+	 * @param root
+	 * @param depth
+	 * @param guess
+	 *            expected value of the iteration, NaN if there is none
+	 * @return the best child of the root, as alphaBetaSearch returns it
+	 */
+	GameStateChild searchIteration(GameStateChild root, int depth, double guess) {
+
+		if (boundTable != null) {
+			return mtdf(root, depth, Double.isNaN(guess) ? root.state.getUtility() : guess);
+		}
+
+		double alpha = Double.NEGATIVE_INFINITY;
+		double beta = Double.POSITIVE_INFINITY;
+
+		if (options.aspirationWindow > 0 && !Double.isNaN(guess)) {
+			alpha = guess - options.aspirationWindow;
+			beta = guess + options.aspirationWindow;
+		}
+
+		while (true) {
+			GameStateChild child = alphaBetaSearch(root, depth, alpha, beta);
+
+			if (child == null || child == root) {
+				return child;
+			} else if (child.state.utility <= alpha) {
+				alpha = Double.NEGATIVE_INFINITY;
+			} else if (child.state.utility >= beta) {
+				beta = Double.POSITIVE_INFINITY;
+			} else {
+				return child;
+			}
+		}
+	}
+
+	/**
+	 * Finds the value of the root with null window searches only. Each pass
+	 * asks whether the value is over a guess, starting with the one
+	 * searchIteration picks, and the answer is a bound the next guess starts
+	 * from. The bound table keeps what every pass learned about every
+	 * position, so a pass mostly searches the positions whose bounds the new
+	 * guess falls between. The passes end when the lower and the upper bound
+	 * on the root meet.
+	 *
+	 * The move to play comes from the last pass that failed high, since only
+	 * a pass with the guess under the value proves its move reaches it.
+	 *
+	 * @param root
+	 * @param depth
+	 * @param guess
+	 *            first guess at the value
+	 * @return the best child of the root, as alphaBetaSearch returns it
+	 */
+	private GameStateChild mtdf(GameStateChild root, int depth, double guess) {
+
+		double lower = Double.NEGATIVE_INFINITY;
+		double upper = Double.POSITIVE_INFINITY;
+		GameStateChild best = null;
+		int[] bestLine = null;
 
-		return bestChild.action;
+		while (lower < upper) {
+			double beta = guess == lower ? Math.nextUp(guess) : guess;
+			GameStateChild child = alphaBetaSearch(root, depth, Math.nextDown(beta), beta);
+
+			if (child == null || child == root) {
+				return child;
+			}
+
+			guess = child.state.utility;
+
+			if (guess < beta) {
+				upper = guess;
+			} else {
+				lower = guess;
+				best = child;
+				bestLine = rootLine;
+			}
+		}
+
+		best.state.utility = guess;
+		rootLine = bestLine;
+		return best;
 	}
 
+	/**
+	 * Picks up the search of the last turn. The transposition table is kept
+	 * from turn to turn, so the subtrees of the archers' replies searched
+	 * last turn are still in it. When the archers played the reply the last
+	 * principal variation expected, the rest of that line becomes the
+	 * principal variation to search first. Iterations shallower than the
+	 * depth the table holds for the state are skipped.
+	 *
+	 * @param state
+	 *            state of the turn
+	 * @return depth of the first iteration
+	 */
+	private int firstDepth(GameState state) {
+
+		boolean predicted = options.reuseTree && state.zobristKey == expectedKey && expectedLine.length > 0;
+		principalVariation = predicted ? expectedLine : new int[0];
+
+		if (!options.reuseTree) {
+			return 1;
+		}
+
+		int storedMove = storedMove(state.zobristKey);
+
+		if (storedMove == JointMove.NONE
+				|| !(options.factored ? state.isLegalUnitMove(storedMove) : state.isLegal(storedMove))) {
+			return 1;
+		}
+		// the stored depth is searched again, mostly out of the table, so the
+		// deeper iterations get a principal variation and killers to start with
+		return Math.max(1, Math.min(numPlys, storedDepth(state.zobristKey)));
+	}
+
+	/**
+	 * Remembers where the principal variation of the turn goes after the
+	 * archers' reply, for firstDepth on the next turn. The factored search
+	 * has one unit action per ply, so the footmen's move and the archers'
+	 * reply may take several plys each.
+	 *
+	 * @param state
+	 *            state of the turn
+	 */
+	private void expectReply(GameState state) {
+
+		expectedKey = 0;
+		expectedLine = new int[0];
+		expectedState = null;
+
+		if (!(options.reuseTree || options.ponder) || principalVariation.length < 2) {
+			return;
+		}
+
+		GameState next = state.copy();
+		int i = 0;
+
+		// on until the footmen are to move again with nothing decided
+		do {
+			next.makeMove(principalVariation[i++]);
+		} while (i < principalVariation.length && (!next.isMaxTurn || next.isDeciding()));
+
+		if (!next.isMaxTurn || next.isDeciding()) {
+			return;
+		}
+
+		int[] line = Arrays.copyOfRange(principalVariation, i, principalVariation.length);
+
+		expectedKey = next.zobristKey;
+		expectedLine = line;
+		expectedState = next.copy();
+	}
+
+	/**
+	 * Gets the joint move a line of the root starts with. In the factored
+	 * search that is the actions of the units of the side one per ply. A
+	 * transposition cutoff may end the line before every unit decided, and
+	 * the units it does not reach take the move stored for their state, or
+	 * their first action when that is not one of theirs.
+	 *
+	 * @param state
+	 *            state the line starts from
+	 * @param line
+	 * @return the joint move, or JointMove.NONE if the line is empty
+	 */
+	private int firstMove(GameState state, int[] line) {
+
+		if (line.length == 0 || !options.factored) {
+			return line.length == 0 ? JointMove.NONE : line[0];
+		}
+
+		GameState next = state.copy();
+		int[] moves = new int[roster.maxUnitMoves];
+		int joint = JointMove.NONE;
+
+		for (int i = 0; next.isMaxTurn == state.isMaxTurn; i++) {
+			int move = i < line.length ? line[i] : storedMove(next.zobristKey);
+
+			if (i >= line.length && !next.isLegalUnitMove(move)) {
+				if (next.generateUnitMoves(moves) == 0) {
+					break;
+				}
+				move = moves[0];
+			}
+
+			joint |= move;
+			next.makeMove(move);
+		}
+		return joint;
+	}
+
+	/**
+	 * Starts searching the state the archers are expected to leave on the
+	 * ponder thread, while SEPIA plays their turn. The ponder search runs the
+	 * same iterative deepening as a turn, filling the transposition table,
+	 * until it reaches numPlys or stopPondering cuts it off through the
+	 * deadline. With the stats option on, its nodes are counted in the next
+	 * turn.
+	 */
+	private void startPondering() {
+
+		if (ponderThread == null || expectedState == null || expectedState.lifeExpectancy != 0) {
+			return;
+		}
+
+		final GameStateChild root = new GameStateChild(null, expectedState);
+		ponderDepth = 0;
+		ponderLine = expectedLine;
+		principalVariation = expectedLine;
+		deadline = Long.MAX_VALUE;
+
+		ponderTask = ponderThread.submit(new Runnable() {
+			@Override
+			public void run() {
+				double value = Double.NaN;
+				double older = Double.NaN;
+
+				for (int depth = 1; depth <= numPlys; depth++) {
+					try {
+						GameStateChild child = searchIteration(root, depth, Double.isNaN(older) ? value : older);
+
+						if (child == null || child == root) {
+							break;
+						}
+						older = value;
+						value = child.state.utility;
+						principalVariation = rootLine;
+						ponderLine = rootLine;
+						ponderDepth = depth;
+					} catch (SearchTimeoutException e) {
+						break;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the ponder search, if there is one, and waits for it to unwind.
+	 * When the state of the turn is the one that was pondered, its line
+	 * becomes the principal variation.
+	 *
+	 * @param state
+	 *            state of the turn, or null when the episode is over
+	 * @return deepest iteration the ponder search completed for the state, 0
+	 *         if it pondered something else
+	 */
+	private int stopPondering(GameState state) {
+
+		if (ponderTask == null) {
+			return 0;
+		}
+
+		// every node compares the clock to the deadline, so this stops the
+		// ponder search at its next node
+		deadline = Long.MIN_VALUE;
+
+		try {
+			ponderTask.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			ponderTask = null;
+			deadline = Long.MAX_VALUE;
+		}
+
+		boolean hit = state != null && state.zobristKey == expectedKey && ponderDepth > 0;
+
+		if (hit) {
+			ponderHits++;
+		}
+
+		if (stats != null && state != null) {
+			stats.pondered(hit);
+		}
+		principalVariation = hit ? ponderLine : new int[0];
+		return hit ? ponderDepth : 0;
+	}
+
+	/**
+	 * Ends the episode. The ponder thread is left for the next one, it ends
+	 * on its own once it has been idle for a second.
+	 */
 	@Override
 	public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
 
+		stopPondering(null);
+
+		if (stats != null) {
+			stats.printTotals();
+		}
 	}
 
 	@Override
@@ -58,6 +553,20 @@ public class MinimaxAlphaBeta extends Agent {
 
 	}
 
+	/**
+	 * @return number of states searched since the agent was created
+	 */
+	long nodesSearched() {
+		return nodes.sum();
+	}
+
+	/**
+	 * @return number of turns that started with the state the agent pondered
+	 */
+	int ponderHits() {
+		return ponderHits;
+	}
+
 	/**
 	 * You will implement this.
 	 *
@@ -81,57 +590,237 @@ public class MinimaxAlphaBeta extends Agent {
 	 */
 	public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta) {
 
-		isMaxTurn = !isMaxTurn;
-
 		if (node.state.lifeExpectancy == Double.MIN_VALUE || node.state.lifeExpectancy == Double.MAX_VALUE
 				|| depth == 0) {
 			return node;
 		}
 
-		GameStateChild bestNode = null;
-		GameStateChild bestCurrentNode = null;
-		double val;
-		List<GameStateChild> children = orderChildrenWithHeuristics(node.state.getChildren());
+		if (stats != null) {
+			stats.node(0);
+		}
 
-		if (isMaxTurn) {
-			val = Double.NEGATIVE_INFINITY;
+		int pvMove = principalMove(0, true);
+		SearchWorker worker = new SearchWorker(node.state, depth, null);
+		MovePicker picker = worker.pickers[0];
+		picker.reset(worker.state, storedMove(node.state.zobristKey), pvMove, worker.killers[0]);
 
-			for (GameStateChild child : children) {
+		// the root needs all of its moves up front to hand them to the pool
+		int[] moves = new int[options.factored ? roster.maxUnitMoves : roster.maxMoves];
+		int count = 0;
 
-				if (child.state.getUtility() > val) {
-					val = child.state.getUtility();
-					bestNode = alphaBetaSearch(child, depth - 1, alpha, beta);
-					bestCurrentNode = child;
-					bestCurrentNode.state.utility = bestNode.state.utility;
-				}
+		for (int move = picker.next(); move != JointMove.NONE; move = picker.next()) {
+			moves[count++] = move;
+		}
 
-				alpha = Math.max(alpha, val);
+		if (count == 0) {
+			return null;
+		}
 
-				if (beta <= alpha) {
-					break;
-				}
+		RootBest best = new RootBest(alpha);
+
+		// the first move is searched alone so the others start with its bound
+		searchRootMove(worker, moves[0], depth, beta, pvMove, false, best);
+
+		if (pool == null || count < 3) {
+			for (int i = 1; i < count && best.alpha() < beta; i++) {
+				searchRootMove(worker, moves[i], depth, beta, pvMove, pvs, best);
 			}
+		} else if (best.alpha() < beta) {
+			searchRootInParallel(node.state, Arrays.copyOfRange(moves, 1, count), depth, beta, pvMove, best);
+		}
+
+		// the factored root picks the first unit's action, SEPIA needs the
+		// joint move of the line it starts
+		int joint = firstMove(node.state, best.line);
+		GameStateChild bestCurrentNode = new GameStateChild(node.state.getActions(joint),
+				node.state.executeAction(joint));
+		bestCurrentNode.state.utility = best.value;
+		rootLine = best.line;
+
+		if (boundTable == null) {
+			transpositionTable.store(node.state.zobristKey, depth, boundType(best.value, alpha, beta), best.value,
+					best.move);
 		} else {
-			val = Double.POSITIVE_INFINITY;
+			boundTable.store(node.state.zobristKey, depth, best.value, alpha, beta, best.move);
+		}
+
+		return bestCurrentNode;
+	}
+
+	/**
+	 * Searches one move of the root on a worker and offers the result to the
+	 * best root move so far
+	 *
+	 * @param worker
+	 *            worker whose state is the root
+	 * @param move
+	 * @param depth
+	 *            depth of the root
+	 * @param beta
+	 * @param pvMove
+	 *            principal variation move of the root
+	 * @param scout
+	 *            true to try the move with a null window first
+	 * @param best
+	 */
+	private void searchRootMove(SearchWorker worker, int move, int depth, double beta, int pvMove, boolean scout,
+			RootBest best) {
+
+		boolean max = worker.state.isMaxTurn;
+		worker.state.makeMove(move);
+		// as in searchMove, the factored root keeps the ply for the next unit
+		int childDepth = worker.state.isMaxTurn == max ? depth : depth - 1;
+		double value;
+
+		try {
+			double alpha = best.alpha();
+			boolean better = true;
+
+			if (scout) {
+				value = worker.search(childDepth, alpha, Math.nextUp(alpha), 1, move == pvMove);
+				better = value > best.alpha() && value < beta;
+			} else {
+				value = Double.NaN;
+			}
+
+			// the move beats the best one so far, find out by how much
+			if (better) {
+				value = worker.search(childDepth, best.alpha(), beta, 1, move == pvMove);
+			}
+		} finally {
+			nodes.add(worker.nodes);
+			worker.nodes = 0;
+		}
+		worker.state.unmakeMove();
+
+		int[] line = new int[1 + worker.pvLength[1]];
+		line[0] = move;
+		System.arraycopy(worker.pvTable[1], 0, line, 1, worker.pvLength[1]);
+
+		best.offer(move, value, line);
+	}
+
+	/**
+	 * Splits the remaining root moves over the fork join pool. Every task
+	 * starts from the best alpha found by the tasks that finished before it,
+	 * and its worker takes up the alpha the others raise while it searches,
+	 * see SearchWorker.search, so later root moves are still searched with a
+	 * narrow window. A task that failed fails the search with it, and one
+	 * that ran out of time fails the iteration.
+	 *
+	 * @param root
+	 * @param moves
+	 * @param depth
+	 * @param beta
+	 * @param pvMove
+	 * @param best
+	 */
+	private void searchRootInParallel(final GameState root, int[] moves, final int depth, final double beta,
+			final int pvMove, final RootBest best) {
 
-			for (GameStateChild child : children) {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
 
-				if (child.state.getUtility() < val) {
-					val = child.state.getUtility();
-					bestNode = alphaBetaSearch(child, depth - 1, alpha, beta);
-					bestCurrentNode = child;
-					bestCurrentNode.state.utility = bestNode.state.utility;
+		for (final int move : moves) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					if (best.alpha() < beta) {
+						searchRootMove(new SearchWorker(root, depth, best), move, depth, beta, pvMove, pvs, best);
+					}
+					return null;
 				}
+			});
+		}
 
-				beta = Math.min(beta, val);
+		boolean timedOut = false;
 
-				if (beta <= alpha) {
-					break;
+		for (Future<Void> task : pool.invokeAll(tasks)) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				timedOut = true;
+			} catch (ExecutionException e) {
+				if (!(e.getCause() instanceof SearchTimeoutException)) {
+					throw new RuntimeException(e.getCause());
 				}
+				timedOut = true;
 			}
 		}
 
-		return bestCurrentNode;
+		if (timedOut) {
+			throw SearchTimeoutException.INSTANCE;
+		}
+	}
+
+	/**
+	 * @param key
+	 *            zobrist key of a position
+	 * @return the best move stored for the position by the table the search
+	 *         uses, JointMove.NONE if there is none
+	 */
+	private int storedMove(long key) {
+
+		if (boundTable == null) {
+			TranspositionTable.Entry entry = transpositionTable.probe(key, new TranspositionTable.Entry());
+			return entry == null ? JointMove.NONE : entry.bestMove;
+		}
+
+		BoundTable.Entry bounds = boundTable.probe(key, new BoundTable.Entry());
+		return bounds == null ? JointMove.NONE : bounds.bestMove;
+	}
+
+	/**
+	 * @param key
+	 *            zobrist key of a position
+	 * @return the depth the position was searched to by the table the search
+	 *         uses, 0 if it is not in the table
+	 */
+	private int storedDepth(long key) {
+
+		if (boundTable == null) {
+			TranspositionTable.Entry entry = transpositionTable.probe(key, new TranspositionTable.Entry());
+			return entry == null ? 0 : entry.depth;
+		}
+
+		BoundTable.Entry bounds = boundTable.probe(key, new BoundTable.Entry());
+		return bounds == null ? 0 : bounds.depth;
+	}
+
+	/**
+	 * Classifies a search result against the window it was searched with
+	 *
+	 * @param val
+	 * @param alpha
+	 * @param beta
+	 * @return the transposition table bound type
+	 */
+	private static int boundType(double val, double alpha, double beta) {
+
+		if (val <= alpha) {
+			return TranspositionTable.UPPER_BOUND;
+		} else if (val >= beta) {
+			return TranspositionTable.LOWER_BOUND;
+		}
+		return TranspositionTable.EXACT;
+	}
+
+	/**
+	 * Gets the move the previous iteration's principal variation played at a
+	 * ply
+	 *
+	 * @param ply
+	 * @param onPv
+	 *            whether the current state is still on the principal variation
+	 * @return the move, or JointMove.NONE if the state is off the principal
+	 *         variation
+	 */
+	private int principalMove(int ply, boolean onPv) {
+
+		if (!onPv || ply >= principalVariation.length) {
+			return JointMove.NONE;
+		}
+		return principalVariation[ply];
 	}
 
 	/**
@@ -151,41 +840,646 @@ public class MinimaxAlphaBeta extends Agent {
 	 */
 	public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children) {
 
-		List<GameStateChild> orderedChildren = new ArrayList<GameStateChild>();
+		List<GameStateChild> orderedChildren = new ArrayList<GameStateChild>(children);
+
+		if (orderedChildren.isEmpty()) {
+			return orderedChildren;
+		}
+
+		// the children were produced by the side that is not to move in them
+		final boolean maximizing = !orderedChildren.get(0).state.isMaxTurn;
+
+		// a stable sort, so children of equal utility keep their order
+		Collections.sort(orderedChildren, new Comparator<GameStateChild>() {
+			@Override
+			public int compare(GameStateChild a, GameStateChild b) {
+				int order = Double.compare(a.state.getUtility(), b.state.getUtility());
+				return maximizing ? -order : order;
+			}
+		});
+
+		return orderedChildren;
+	}
+
+	/**
+	 * Runs the recursive part of the search. Every thread of the parallel root
+	 * search gets its own worker, so the only things workers share are the
+	 * transposition table, the evaluation cache and the history scores.
+	 *
+	 * A worker searches on its own copy of the root, making and unmaking moves
+	 * on it, and keeps a move picker and a principal variation row for every
+	 * ply so nothing is allocated while it searches.
+	 */
+	private class SearchWorker {
+
+		final GameState state;
+		// picks the moves of the state at each ply
+		final MovePicker[] pickers;
+		// two quiet moves per ply that caused the latest cutoffs
+		final int[][] killers;
+		// pvTable[ply] holds the best line found from ply, pvLength[ply] long
+		final int[][] pvTable;
+		final int[] pvLength;
+		// filled in by each probe of the tables, read before the node recurses
+		final TranspositionTable.Entry ttEntry = new TranspositionTable.Entry();
+		final BoundTable.Entry boundEntry = new BoundTable.Entry();
+		// states visited since the count was last added to nodes
+		long nodes = 0;
+		// best root move of a parallel root search, null for the worker that
+		// searches the root moves one after the other
+		private final RootBest rootBest;
+
+		/**
+		 * @param root
+		 * @param depth
+		 *            depth of the root
+		 * @param rootBest
+		 *            best root move the parallel root search shares between
+		 *            its tasks, or null
+		 */
+		SearchWorker(GameState root, int depth, RootBest rootBest) {
+			// the factored search takes a ply for each unit, and the
+			// quiescence search goes on past the depth
+			int units = options.factored ? Math.max(roster.numFootmen, roster.numArchers) : 1;
+			int plys = (depth + options.quiescenceDepth) * units + 1;
+			this.state = root.copy();
+			this.pickers = new MovePicker[plys];
+			this.killers = new int[plys][2];
+			this.pvTable = new int[plys][plys];
+			this.pvLength = new int[plys];
+			this.rootBest = rootBest;
+
+			for (int ply = 0; ply < plys; ply++) {
+				pickers[ply] = new MovePicker(options.factored ? roster.maxUnitMoves : roster.maxMoves, history,
+						stats, options.factored);
+			}
+		}
+
+		/**
+		 * Recursive part of the alpha beta search. Returns the minimax value
+		 * of the worker's state instead of a child, and uses the transposition
+		 * table to skip positions that were already searched deep enough
+		 * through a different move order.
+		 *
+		 * @param depth
+		 *            The remaining number of plys under this state
+		 * @param alpha
+		 * @param beta
+		 * @param ply
+		 *            distance from the root
+		 * @param onPv
+		 *            true if every move from the root to this state follows the
+		 *            previous iteration's principal variation
+		 * @return The value of the state
+		 */
+		double search(int depth, double alpha, double beta, int ply, boolean onPv) {
+
+			if (depth == 0 && options.quiescenceDepth > 0) {
+				return quiesce(alpha, beta, ply, options.quiescenceDepth);
+			}
+
+			if (System.nanoTime() > deadline) {
+				throw SearchTimeoutException.INSTANCE;
+			}
+
+			nodes++;
+			pvLength[ply] = 0;
+
+			if (stats != null) {
+				stats.node(ply);
+			}
+
+			if (state.lifeExpectancy == Double.MIN_VALUE || state.lifeExpectancy == Double.MAX_VALUE
+					|| depth == 0) {
+				return evaluate();
+			}
+
+			double originalAlpha = alpha;
+			double originalBeta = beta;
 
-		if (isMaxTurn) {
-			for (int i = 0; i < children.size(); i++) {
-				double max = Double.NEGATIVE_INFINITY;
-				GameStateChild bestChild = null;
-				for (int j = 0; j < children.size(); j++) {
+			// best move of an earlier search of the state, to try first
+			int storedMove = JointMove.NONE;
 
-					double utility = children.get(j).state.getUtility();
+			if (boundTable == null) {
+				TranspositionTable.Entry entry = transpositionTable.probe(state.zobristKey, ttEntry);
 
-					if (utility > max) {
-						max = utility;
-						bestChild = children.get(j);
+				if (entry != null) {
+					storedMove = entry.bestMove;
+				}
+
+				if (entry != null && entry.depth >= depth) {
+					if (entry.bound == TranspositionTable.EXACT) {
+						countTranspositionHit();
+						return entry.value;
+					} else if (entry.bound == TranspositionTable.LOWER_BOUND) {
+						alpha = Math.max(alpha, entry.value);
+					} else {
+						beta = Math.min(beta, entry.value);
+					}
+
+					if (beta <= alpha) {
+						countTranspositionHit();
+						return entry.value;
+					}
+				}
+			} else {
+				BoundTable.Entry bounds = boundTable.probe(state.zobristKey, boundEntry);
+
+				if (bounds != null) {
+					storedMove = bounds.bestMove;
+				}
+
+				if (bounds != null && bounds.depth >= depth) {
+					if (bounds.lower >= beta) {
+						countTranspositionHit();
+						return bounds.lower;
+					} else if (bounds.upper <= alpha) {
+						countTranspositionHit();
+						return bounds.upper;
+					}
+					alpha = Math.max(alpha, bounds.lower);
+					beta = Math.min(beta, bounds.upper);
+
+					// the bounds met, the value is known
+					if (beta <= alpha) {
+						countTranspositionHit();
+						return alpha;
+					}
+				}
+			}
+
+			// the children start from this state's terms
+			if (stats == null) {
+				state.updateUtility();
+			} else {
+				long start = System.nanoTime();
+				state.updateUtility();
+				stats.updated(System.nanoTime() - start);
+			}
+
+			int pvMove = principalMove(ply, onPv);
+			MovePicker picker = pickers[ply];
+			picker.reset(state, storedMove, pvMove, killers[ply]);
+
+			int bestMove = JointMove.NONE;
+			// moves searched at this node so far
+			int searched = 0;
+			double val;
+
+			// on the last ply a quiet move changes the utility by less than the
+			// futility margin, so when the utility is that far outside the
+			// window the quiet moves cannot bring it back and are skipped, and
+			// the margin stands in for their value
+			boolean futile = false;
+			double futileValue = 0;
+
+			if (options.futilityMargin > 0 && depth == 1 && !state.inMelee()) {
+				double utility = state.getUtility();
+
+				if (state.isMaxTurn && utility + options.futilityMargin <= alpha) {
+					futile = true;
+					futileValue = utility + options.futilityMargin;
+				} else if (!state.isMaxTurn && utility - options.futilityMargin >= beta) {
+					futile = true;
+					futileValue = utility - options.futilityMargin;
+				}
+			}
+
+			if (state.isMaxTurn) {
+				val = Double.NEGATIVE_INFINITY;
+
+				for (int move = picker.next(); move != JointMove.NONE; move = picker.next()) {
+
+					double shared = rootAlpha(ply, alpha);
+
+					if (shared > alpha && shared < beta) {
+						alpha = shared;
+						originalAlpha = Math.max(originalAlpha, shared);
+					}
+
+					if (futile && searched > 0 && JointMove.attackers(move) == 0) {
+						val = Math.max(val, futileValue);
+						continue;
+					}
+
+					double childVal = searchMove(move, depth, alpha, beta, ply, pvMove, searched);
+					searched++;
+
+					if (bestMove == JointMove.NONE || childVal > val) {
+						val = childVal;
+						bestMove = move;
+						updatePrincipalVariation(ply, bestMove);
+					}
+
+					alpha = Math.max(alpha, val);
+
+					if (beta <= alpha) {
+						recordCutoff(ply, move, depth, searched);
+						break;
+					}
+				}
+			} else {
+				val = Double.POSITIVE_INFINITY;
+
+				for (int move = picker.next(); move != JointMove.NONE; move = picker.next()) {
+
+					double shared = rootAlpha(ply, alpha);
+
+					// the reply already holds the root move under a better one
+					if (shared > alpha && (val <= shared || shared < beta)) {
+						alpha = shared;
+						originalAlpha = Math.max(originalAlpha, shared);
+
+						if (beta <= alpha) {
+							break;
+						}
+					}
+
+					if (futile && searched > 0 && JointMove.attackers(move) == 0) {
+						val = Math.min(val, futileValue);
+						continue;
+					}
+
+					double childVal = searchMove(move, depth, alpha, beta, ply, pvMove, searched);
+					searched++;
+
+					if (bestMove == JointMove.NONE || childVal < val) {
+						val = childVal;
+						bestMove = move;
+						updatePrincipalVariation(ply, bestMove);
+					}
+
+					beta = Math.min(beta, val);
+
+					if (beta <= alpha) {
+						recordCutoff(ply, move, depth, searched);
+						break;
 					}
 				}
-				orderedChildren.add(bestChild);
-				children.remove(bestChild);
 			}
-		} else {
-			for (int i = 0; i < children.size(); i++) {
-				double min = Double.POSITIVE_INFINITY;
-				GameStateChild bestChild = null;
-				for (int j = 0; j < children.size(); j++) {
 
-					double utility = children.get(j).state.getUtility();
+			// no legal moves, nothing to search
+			if (bestMove == JointMove.NONE) {
+				return state.getUtility();
+			}
+
+			if (boundTable == null) {
+				transpositionTable.store(state.zobristKey, depth, boundType(val, originalAlpha, originalBeta), val,
+						bestMove);
+			} else {
+				boundTable.store(state.zobristKey, depth, val, originalAlpha, originalBeta, bestMove);
+			}
+
+			return val;
+		}
+
+		/**
+		 * Plays a move of the worker's state, searches the state it leads to
+		 * and takes the move back.
+		 *
+		 * A quiet move that comes after the first lateMoves is first searched
+		 * lateMoveReduction plys shallower with a null window. The moves are
+		 * ordered, so it is expected to fail low, and then that is all the
+		 * search it gets. If it does better, the reduced search may have
+		 * missed why, so the move is searched again to the full depth. With
+		 * the pvs search every move after the first also gets a null window
+		 * at the full depth before the full window.
+		 *
+		 * @param move
+		 * @param depth
+		 *            remaining plys of the worker's state
+		 * @param alpha
+		 * @param beta
+		 * @param ply
+		 *            distance of the worker's state from the root
+		 * @param pvMove
+		 *            principal variation move of the worker's state
+		 * @param searched
+		 *            moves searched at the worker's state before this one
+		 * @return the value of the move
+		 */
+		private double searchMove(int move, int depth, double alpha, double beta, int ply, int pvMove, int searched) {
+
+			boolean max = state.isMaxTurn;
+			boolean onPv = move == pvMove;
+			double value = Double.NaN;
+			// whether the move still needs the full window at the full depth
+			boolean full = true;
+
+			state.makeMove(move);
+
+			// in the factored search a unit that is not the last of its side
+			// to decide leaves the ply to the next one
+			int childDepth = state.isMaxTurn == max ? depth : depth - 1;
+			int reduced = childDepth - options.lateMoveReduction;
+
+			if (options.lateMoveReduction > 0 && searched >= options.lateMoves && reduced > 0 && !onPv
+					&& JointMove.attackers(move) == 0) {
+				value = searchNullWindow(max, reduced, alpha, beta, ply + 1, onPv);
+				full = max ? value > alpha : value < beta;
+			}
+
+			if (full && pvs && searched > 0) {
+				value = searchNullWindow(max, childDepth, alpha, beta, ply + 1, onPv);
+				full = value > alpha && value < beta;
+			}
+
+			if (full) {
+				value = search(childDepth, alpha, beta, ply + 1, onPv);
+			}
+
+			state.unmakeMove();
+			return value;
+		}
+
+		/**
+		 * Gets the alpha of the root for a state a root move of a parallel
+		 * root search led to. The other tasks raise it as they find better
+		 * root moves, and the window of the state narrows with it. The bound
+		 * the state is stored with narrows too, since its value is only
+		 * searched down to the raised alpha.
+		 *
+		 * @param ply
+		 * @param alpha
+		 *            alpha of the state
+		 * @return the higher of alpha and the root's alpha on the first ply
+		 *         of a parallel root search, alpha anywhere else
+		 */
+		private double rootAlpha(int ply, double alpha) {
+
+			if (ply != 1 || rootBest == null) {
+				return alpha;
+			}
+			return Math.max(alpha, rootBest.alpha());
+		}
+
+		/**
+		 * Searches with a null window that only finds out whether the value
+		 * beats alpha, for the footmen, or stays under beta, for the archers
+		 *
+		 * @param max
+		 *            true if the footmen moved into the state
+		 * @param depth
+		 * @param alpha
+		 * @param beta
+		 * @param ply
+		 * @param onPv
+		 * @return the value of the state, a bound if it is outside the window
+		 */
+		private double searchNullWindow(boolean max, int depth, double alpha, double beta, int ply, boolean onPv) {
+
+			if (max) {
+				return search(depth, alpha, Math.nextUp(alpha), ply, onPv);
+			}
+			return search(depth, Math.nextDown(beta), beta, ply, onPv);
+		}
+
+		/**
+		 * Searches the attacks from a state at the horizon, so a leaf is not
+		 * evaluated halfway through an exchange of blows. A state is quiet
+		 * when no footman is in melee with an archer. The archers' long range
+		 * shots alone do not count, since they can take one almost anywhere
+		 * and the search would only add a ply of them to every leaf. In an
+		 * exchange the side to move may also stand pat and take the utility
+		 * of the state as it is, which is roughly what a quiet move would
+		 * keep, so only attacks that do better than that are searched, and a
+		 * side whose utility already beats its bound cuts off without
+		 * searching any. The search ends when the state is quiet or after
+		 * the given number of plys.
+		 *
+		 * The factored search takes the attacks a unit at a time, and a ply
+		 * of attacks only ends when the whole side decided. Standing pat
+		 * after some units decided is worth what it was before they did, so
+		 * the value is the same as with joint moves.
+		 *
+		 * Quiescence values depend on the window like any other, and the
+		 * node that called it stores them in the transposition table.
+		 *
+		 * @param alpha
+		 * @param beta
+		 * @param ply
+		 *            distance from the root
+		 * @param left
+		 *            plys of attacks still allowed
+		 * @return the value of the state
+		 */
+		private double quiesce(double alpha, double beta, int ply, int left) {
+
+			if (System.nanoTime() > deadline) {
+				throw SearchTimeoutException.INSTANCE;
+			}
+
+			nodes++;
+			pvLength[ply] = 0;
+
+			if (stats != null) {
+				stats.node(ply);
+			}
+
+			double standPat = evaluate();
+
+			if (state.lifeExpectancy == Double.MIN_VALUE || state.lifeExpectancy == Double.MAX_VALUE || left == 0
+					|| !state.inMelee()) {
+				return standPat;
+			}
+
+			MovePicker picker = pickers[ply];
+			double val = standPat;
+
+			if (state.isMaxTurn) {
+				if (standPat >= beta) {
+					return standPat;
+				}
+				alpha = Math.max(alpha, standPat);
+				picker.resetAttacks(state);
+
+				for (int move = picker.next(); move != JointMove.NONE; move = picker.next()) {
+
+					state.makeMove(move);
+					double childVal = quiesce(alpha, beta, ply + 1, state.isMaxTurn ? left : left - 1);
+					state.unmakeMove();
+
+					if (childVal > val) {
+						val = childVal;
+						updatePrincipalVariation(ply, move);
+					}
+
+					alpha = Math.max(alpha, val);
+
+					if (beta <= alpha) {
+						break;
+					}
+				}
+			} else {
+				if (standPat <= alpha) {
+					return standPat;
+				}
+				beta = Math.min(beta, standPat);
+				picker.resetAttacks(state);
+
+				for (int move = picker.next(); move != JointMove.NONE; move = picker.next()) {
+
+					state.makeMove(move);
+					double childVal = quiesce(alpha, beta, ply + 1, state.isMaxTurn ? left - 1 : left);
+					state.unmakeMove();
+
+					if (childVal < val) {
+						val = childVal;
+						updatePrincipalVariation(ply, move);
+					}
+
+					beta = Math.min(beta, val);
 
-					if (utility < min) {
-						min = utility;
-						bestChild = children.get(j);
+					if (beta <= alpha) {
+						break;
 					}
 				}
-				orderedChildren.add(bestChild);
-				children.remove(bestChild);
 			}
+
+			return val;
+		}
+
+		/**
+		 * Evaluates a leaf, through the evaluation cache when there is one. A
+		 * hit saves recomputing the heuristic terms the moves down to the leaf
+		 * left stale.
+		 *
+		 * @return the utility of the worker's state
+		 */
+		private double evaluate() {
+
+			if (stats == null) {
+				return lookUpOrEvaluate();
+			}
+
+			long start = System.nanoTime();
+			double value = lookUpOrEvaluate();
+			stats.evaluated(System.nanoTime() - start);
+			return value;
+		}
+
+		private double lookUpOrEvaluate() {
+
+			if (evaluationCache == null || state.staleTerms == 0) {
+				return state.getUtility();
+			}
+
+			long key = state.evaluationKey();
+			double value = evaluationCache.probe(key);
+
+			if (Double.isNaN(value)) {
+				value = state.getUtility();
+				evaluationCache.store(key, value);
+			}
+			return value;
+		}
+
+		private void countTranspositionHit() {
+
+			if (stats != null) {
+				stats.transpositionHit();
+			}
+		}
+
+		/**
+		 * Counts a beta cutoff, remembers a quiet move that caused it as a
+		 * killer of its ply and rewards its unit actions in the history table.
+		 * Attacks are already tried early, so they are left out of those.
+		 *
+		 * @param ply
+		 * @param move
+		 * @param depth
+		 *            remaining depth at the cutoff
+		 * @param searched
+		 *            moves searched at the node, the cutoff move included
+		 */
+		private void recordCutoff(int ply, int move, int depth, int searched) {
+
+			if (stats != null) {
+				stats.cutoff(ply, searched);
+			}
+
+			if (JointMove.attackers(move) > 0) {
+				return;
+			}
+
+			// the state is back at the node, so its side is the one that moved
+			int base = state.isMaxTurn ? 0 : roster.numFootmen;
+			int units = state.isMaxTurn ? roster.numFootmen : roster.numArchers;
+			history.reward(move, base, units, depth);
+
+			if (killers[ply][0] != move) {
+				killers[ply][1] = killers[ply][0];
+				killers[ply][0] = move;
+			}
+		}
+
+		/**
+		 * Records that the best line from a ply starts with the given move and
+		 * continues with the best line found under it
+		 *
+		 * @param ply
+		 * @param move
+		 */
+		private void updatePrincipalVariation(int ply, int move) {
+
+			pvTable[ply][0] = move;
+			System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, pvLength[ply + 1]);
+			pvLength[ply] = pvLength[ply + 1] + 1;
+		}
+	}
+
+	/**
+	 * Best root move found so far in an iteration. The parallel root search
+	 * shares it between its tasks, which read alpha from it when they start.
+	 */
+	private static class RootBest {
+
+		private double alpha;
+		private double value = Double.NEGATIVE_INFINITY;
+		private int move = JointMove.NONE;
+		private int[] line;
+
+		RootBest(double alpha) {
+			this.alpha = alpha;
+		}
+
+		synchronized double alpha() {
+			return alpha;
+		}
+
+		/**
+		 * Keeps the move if it is better than the best one so far. Ties go to
+		 * the move that finished first, since a later move with the same value
+		 * was searched with that value as alpha and only failed low.
+		 *
+		 * @param move
+		 * @param value
+		 * @param line
+		 *            principal variation starting with the move
+		 */
+		synchronized void offer(int move, double value, int[] line) {
+
+			if (this.move == JointMove.NONE || value > this.value) {
+				this.move = move;
+				this.value = value;
+				this.line = line;
+				this.alpha = Math.max(alpha, value);
+			}
+		}
+	}
+
+	/**
+	 * Thrown out of the search when the time budget of the turn runs out. It
+	 * carries no stack trace since it is only used to unwind the search.
+	 */
+	private static class SearchTimeoutException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+		static final SearchTimeoutException INSTANCE = new SearchTimeoutException();
+
+		private SearchTimeoutException() {
+			super(null, null, false, false);
 		}
-		return orderedChildren;
 	}
 }
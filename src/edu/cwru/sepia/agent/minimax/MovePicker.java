@@ -0,0 +1,282 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * Hands the search the joint moves of a state one at a time, in stages that
+ * get more expensive:
+ *
+ * 1. the transposition table move and the principal variation move, checked
+ * for legality but played before anything is generated
+ * 2. moves with attacks, the ones with the most attacking units first
+ * 3. the killer moves of the ply, quiet moves that caused a cutoff in a sibling
+ * 4. the remaining quiet moves, highest history score first
+ *
+ * Nothing is evaluated here. A move is only played, and its state evaluated,
+ * when the search pulls it, so a cutoff on the first moves saves almost all of
+ * the work at a node. One picker is kept per ply and reset for every node.
+ *
+ * A factored picker hands out the actions of one unit at a time, see
+ * GameState.generateUnitMoves.
+ *
+ * The quiescence search only looks at attacks, so resetAttacks starts a picker
+ * that stops within the second stage, after the moves with the most attackers.
+ * For a factored picker those are the unit's attacks, or all of its actions
+ * if it has nothing to hit, which together make up the same joint moves.
+ */
+final class MovePicker {
+
+	private static final int HASH_MOVE = 0;
+	private static final int PV_MOVE = 1;
+	private static final int GENERATE = 2;
+	private static final int ATTACKS = 3;
+	private static final int KILLERS = 4;
+	private static final int QUIET_MOVES = 5;
+	private static final int DONE = 6;
+
+	private static final int[] NO_KILLERS = new int[0];
+
+	private final HistoryTable history;
+	// pick the actions of one unit instead of joint moves
+	private final boolean factored;
+	// null when the search is not counted
+	private final SearchStats stats;
+	// generated moves, sorted into moves by the number of attackers
+	private final int[] generated;
+	private final int[] moves;
+	// history sort keys of the quiet moves
+	private final long[] keys;
+	// per number of attackers, where its moves go in moves
+	private final int[] attackerStarts = new int[JointMove.MAX_UNITS + 1];
+	private int count;
+	private int attackCount;
+	// attackers in the moves with the most of them
+	private int mostAttackers;
+	private int index;
+	private int stage;
+
+	private GameState state;
+	private int hashMove;
+	private int pvMove;
+	private int[] killers;
+	// stop after the attacks
+	private boolean attacksOnly;
+
+	/**
+	 * @param maxMoves
+	 *            most moves a state can have, joint moves or the actions of a
+	 *            single unit for a factored picker
+	 * @param history
+	 * @param stats
+	 *            where the time spent generating moves goes, may be null
+	 * @param factored
+	 *            true to pick the actions of one unit at a time
+	 */
+	MovePicker(int maxMoves, HistoryTable history, SearchStats stats, boolean factored) {
+		this.history = history;
+		this.stats = stats;
+		this.factored = factored;
+		this.generated = new int[maxMoves];
+		this.moves = new int[maxMoves];
+		this.keys = new long[maxMoves];
+	}
+
+	/**
+	 * Starts picking the moves of a state
+	 *
+	 * @param state
+	 * @param hashMove
+	 *            best move stored in the transposition table, or
+	 *            JointMove.NONE
+	 * @param pvMove
+	 *            principal variation move, or JointMove.NONE
+	 * @param killers
+	 *            killer moves of the ply, JointMove.NONE where there is none
+	 */
+	void reset(GameState state, int hashMove, int pvMove, int[] killers) {
+		this.state = state;
+		this.hashMove = isLegal(hashMove) ? hashMove : JointMove.NONE;
+		this.pvMove = pvMove != this.hashMove && isLegal(pvMove) ? pvMove : JointMove.NONE;
+		this.killers = killers;
+		this.attacksOnly = false;
+		this.stage = HASH_MOVE;
+	}
+
+	/**
+	 * Starts picking only the moves of a state with as many attacking units
+	 * as any of its moves has, the moves of a side that hits with everything
+	 * it can hit with
+	 *
+	 * @param state
+	 */
+	void resetAttacks(GameState state) {
+		this.state = state;
+		this.hashMove = JointMove.NONE;
+		this.pvMove = JointMove.NONE;
+		this.killers = NO_KILLERS;
+		this.attacksOnly = true;
+		this.stage = GENERATE;
+	}
+
+	/**
+	 * @return the next move, or JointMove.NONE when there are no more
+	 */
+	int next() {
+
+		switch (stage) {
+		case HASH_MOVE:
+			stage = PV_MOVE;
+			if (hashMove != JointMove.NONE) {
+				return hashMove;
+			}
+			// fall through
+		case PV_MOVE:
+			stage = GENERATE;
+			if (pvMove != JointMove.NONE) {
+				return pvMove;
+			}
+			// fall through
+		case GENERATE:
+			if (stats == null) {
+				generate();
+			} else {
+				long start = System.nanoTime();
+				generate();
+				stats.generated(System.nanoTime() - start);
+			}
+			stage = ATTACKS;
+			// fall through
+		case ATTACKS:
+			while (index < attackCount) {
+				int move = moves[index++];
+
+				if (attacksOnly && JointMove.attackers(move) < mostAttackers) {
+					break;
+				}
+
+				if (move != hashMove && move != pvMove) {
+					return move;
+				}
+			}
+			// a unit with nothing to hit still has to act for its side
+			if (attacksOnly && (attackCount > 0 || !factored)) {
+				stage = DONE;
+				return JointMove.NONE;
+			}
+			stage = KILLERS;
+			index = 0;
+			// fall through
+		case KILLERS:
+			while (index < killers.length) {
+				int move = killers[index++];
+
+				if (isKiller(move)) {
+					return move;
+				}
+			}
+			stage = QUIET_MOVES;
+			index = attackCount;
+			// fall through
+		case QUIET_MOVES:
+			while (index < count) {
+				int move = moves[index++];
+
+				if (move != hashMove && move != pvMove && !isKiller(move)) {
+					return move;
+				}
+			}
+			stage = DONE;
+			// fall through
+		default:
+			return JointMove.NONE;
+		}
+	}
+
+	/**
+	 * @param move
+	 * @return true if the move is a killer that is played in the killer stage
+	 */
+	private boolean isKiller(int move) {
+
+		if (move == JointMove.NONE || move == hashMove || move == pvMove || JointMove.attackers(move) > 0) {
+			return false;
+		}
+
+		for (int killer : killers) {
+			if (killer == move) {
+				return isLegal(move);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param move
+	 * @return true if the move is one this picker could hand out
+	 */
+	private boolean isLegal(int move) {
+		return factored ? state.isLegalUnitMove(move) : state.isLegal(move);
+	}
+
+	/**
+	 * Generates the moves and sorts them by the number of attacking units,
+	 * keeping generation order between moves with as many attackers. The
+	 * quiet moves at the end are then sorted by their history score.
+	 */
+	private void generate() {
+
+		int generatedCount = factored ? state.generateUnitMoves(generated) : state.generateMoves(generated);
+		mostAttackers = 0;
+		Arrays.fill(attackerStarts, 0);
+
+		for (int i = 0; i < generatedCount; i++) {
+			int attackers = JointMove.attackers(generated[i]);
+			attackerStarts[attackers]++;
+			mostAttackers = Math.max(mostAttackers, attackers);
+		}
+
+		// a counting sort, the moves with the most attackers first
+		int start = 0;
+
+		for (int attackers = mostAttackers; attackers >= 0; attackers--) {
+			int moveCount = attackerStarts[attackers];
+			attackerStarts[attackers] = start;
+			start += moveCount;
+		}
+
+		attackCount = attackerStarts[0];
+		count = generatedCount;
+
+		for (int i = 0; i < generatedCount; i++) {
+			moves[attackerStarts[JointMove.attackers(generated[i])]++] = generated[i];
+		}
+
+		sortQuietMoves();
+		index = 0;
+	}
+
+	/**
+	 * Sorts the quiet moves by history score, highest first. Each key holds
+	 * the negated score above the move's position, so sorting the keys is
+	 * stable and allocates nothing.
+	 */
+	private void sortQuietMoves() {
+
+		UnitRoster roster = state.roster;
+		int base = state.isMaxTurn ? 0 : roster.numFootmen;
+		int units = state.isMaxTurn ? roster.numFootmen : roster.numArchers;
+		int quietCount = count - attackCount;
+
+		for (int i = 0; i < quietCount; i++) {
+			int score = history.score(moves[attackCount + i], base, units);
+			keys[i] = ((long) -score << 32) | i;
+		}
+
+		Arrays.sort(keys, 0, quietCount);
+
+		for (int i = 0; i < quietCount; i++) {
+			generated[i] = moves[attackCount + (int) keys[i]];
+		}
+		System.arraycopy(generated, 0, moves, attackCount, quietCount);
+	}
+}
@@ -0,0 +1,126 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Optional settings for the search. They are given to the agent after the
+ * number of plys as name=value arguments in the GameConfig, for example
+ * &lt;Argument&gt;timeBudget=500&lt;/Argument&gt;. Anything not given keeps its
+ * default.
+ */
+public class SearchOptions {
+
+	// values of the search option
+	public static final String ALPHA_BETA = "alphabeta";
+	public static final String PVS = "pvs";
+	public static final String MTDF = "mtdf";
+
+	// milliseconds the agent may spend searching each turn, 0 means no limit
+	public long timeBudget = 0;
+	// threads for the parallel root search, 1 searches on the agent's thread
+	public int threads = 1;
+	// slots of the leaf evaluation cache, 0 turns it off
+	public int evalCacheSize = EvaluationCache.DEFAULT_SIZE;
+	// print what the search did after every turn, see SearchStats
+	public boolean stats = false;
+	// carry the search of the last turn over to the next one
+	public boolean reuseTree = true;
+	// keep searching the expected reply while the archers take their turn
+	public boolean ponder = false;
+	// alphabeta searches every move with the full window, pvs searches the
+	// moves after the first with a null window and again only if they turn
+	// out better, mtdf searches the whole tree with null windows until they
+	// close in on the value, see MinimaxAlphaBeta.mtdf
+	public String search = ALPHA_BETA;
+	// half the width of the window each iteration after the first starts
+	// with, around the value of the one before, 0 starts with the full window.
+	// mtdf does not use it
+	public double aspirationWindow = 0;
+	// plys of attacks the quiescence search looks at past the last ply, 0
+	// evaluates the last ply as it is
+	public int quiescenceDepth = 0;
+	// plys taken off the search of a late quiet move, 0 searches every move
+	// to the full depth
+	public int lateMoveReduction = 0;
+	// moves searched to the full depth at a node before the reductions start
+	public int lateMoves = 3;
+	// most a quiet move on the last ply is taken to change the utility by,
+	// 0 searches quiet moves on the last ply even when they cannot matter
+	public double futilityMargin = 0;
+	// let the units of a side decide one after the other, see
+	// GameState.makeMove, instead of searching their joint moves
+	public boolean factored = false;
+
+	public SearchOptions() {
+	}
+
+	/**
+	 * Parses the name=value arguments
+	 *
+	 * @param args
+	 *            the agent arguments
+	 * @param first
+	 *            index of the first option in args
+	 */
+	public SearchOptions(String[] args, int first) {
+
+		for (int i = first; i < args.length; i++) {
+			String[] option = args[i].split("=", 2);
+
+			if (option.length != 2) {
+				System.err.println("Search options must look like name=value, got " + args[i]);
+				System.exit(1);
+			}
+
+			set(option[0].trim(), option[1].trim());
+		}
+	}
+
+	/**
+	 * Sets a single option
+	 *
+	 * @param name
+	 * @param value
+	 */
+	private void set(String name, String value) {
+
+		try {
+			if (name.equals("timeBudget")) {
+				timeBudget = Long.parseLong(value);
+			} else if (name.equals("threads")) {
+				threads = Integer.parseInt(value);
+			} else if (name.equals("evalCacheSize")) {
+				evalCacheSize = Integer.parseInt(value);
+			} else if (name.equals("stats")) {
+				stats = Boolean.parseBoolean(value);
+			} else if (name.equals("reuseTree")) {
+				reuseTree = Boolean.parseBoolean(value);
+			} else if (name.equals("ponder")) {
+				ponder = Boolean.parseBoolean(value);
+			} else if (name.equals("search")) {
+				if (!value.equals(ALPHA_BETA) && !value.equals(PVS) && !value.equals(MTDF)) {
+					System.err.println(
+							"Unknown search " + value + ", expected " + ALPHA_BETA + ", " + PVS + " or " + MTDF);
+					System.exit(1);
+				}
+				search = value;
+			} else if (name.equals("aspirationWindow")) {
+				aspirationWindow = Double.parseDouble(value);
+			} else if (name.equals("quiescenceDepth")) {
+				quiescenceDepth = Integer.parseInt(value);
+			} else if (name.equals("lateMoveReduction")) {
+				lateMoveReduction = Integer.parseInt(value);
+			} else if (name.equals("lateMoves")) {
+				lateMoves = Integer.parseInt(value);
+			} else if (name.equals("futilityMargin")) {
+				futilityMargin = Double.parseDouble(value);
+			} else if (name.equals("factored")) {
+				factored = Boolean.parseBoolean(value);
+			} else {
+				System.err.println("Unknown search option " + name);
+				System.exit(1);
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Bad value for search option " + name + ": " + value);
+			System.exit(1);
+		}
+	}
+}
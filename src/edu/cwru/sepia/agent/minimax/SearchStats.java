@@ -0,0 +1,227 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of what the search does, kept when the agent is started with the
+ * stats=true option. The agent holds null otherwise, and every place that
+ * counts checks for it first, so the counters cost nothing when they are off.
+ *
+ * The counters are LongAdders since the threads of the parallel root search
+ * all count into them. Nodes and cutoffs are counted per ply, up to MAX_PLY,
+ * which gives the effective branching factor of every ply and how often the
+ * first move searched at a node was already good enough for a cutoff, the
+ * measure of the move ordering. The time spent generating moves and
+ * evaluating states is measured around those calls.
+ *
+ * endTurn prints the counters of the turn and starts over, printTotals prints
+ * them summed over every turn so far.
+ */
+final class SearchStats {
+
+	// deeper plies are counted in the last one
+	static final int MAX_PLY = 32;
+
+	private final LongAdder[] nodes = counters(MAX_PLY);
+	private final LongAdder[] cutoffs = counters(MAX_PLY);
+	private final LongAdder[] firstMoveCutoffs = counters(MAX_PLY);
+	private final LongAdder evaluations = new LongAdder();
+	private final LongAdder transpositionHits = new LongAdder();
+	private final LongAdder generateNanos = new LongAdder();
+	private final LongAdder evaluateNanos = new LongAdder();
+
+	// sums over the turns that ended, in the same order as the adders
+	private final long[] totalNodes = new long[MAX_PLY];
+	private final long[] totalCutoffs = new long[MAX_PLY];
+	private final long[] totalFirstMoveCutoffs = new long[MAX_PLY];
+	private long totalEvaluations = 0;
+	private long totalTranspositionHits = 0;
+	private long totalGenerateNanos = 0;
+	private long totalEvaluateNanos = 0;
+	private long totalNanos = 0;
+	private int turns = 0;
+	private int ponderHits = 0;
+	private int ponderMisses = 0;
+	// cache counts when the last turn ended, to print the turn's share
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
+	private long totalCacheHits = 0;
+	private long totalCacheMisses = 0;
+
+	private static LongAdder[] counters(int size) {
+
+		LongAdder[] counters = new LongAdder[size];
+
+		for (int i = 0; i < size; i++) {
+			counters[i] = new LongAdder();
+		}
+		return counters;
+	}
+
+	/**
+	 * Counts a state the search visited
+	 *
+	 * @param ply
+	 */
+	void node(int ply) {
+		nodes[Math.min(ply, MAX_PLY - 1)].increment();
+	}
+
+	/**
+	 * Counts a beta cutoff
+	 *
+	 * @param ply
+	 * @param moveNumber
+	 *            how many moves were searched at the node, the one that caused
+	 *            the cutoff included
+	 */
+	void cutoff(int ply, int moveNumber) {
+
+		int i = Math.min(ply, MAX_PLY - 1);
+		cutoffs[i].increment();
+
+		if (moveNumber == 1) {
+			firstMoveCutoffs[i].increment();
+		}
+	}
+
+	/**
+	 * Counts a transposition table entry that ended the search of a node
+	 */
+	void transpositionHit() {
+		transpositionHits.increment();
+	}
+
+	/**
+	 * @param nanos
+	 *            time spent generating and sorting the moves of a state
+	 */
+	void generated(long nanos) {
+		generateNanos.add(nanos);
+	}
+
+	/**
+	 * @param nanos
+	 *            time spent evaluating a leaf
+	 */
+	void evaluated(long nanos) {
+		evaluations.increment();
+		evaluateNanos.add(nanos);
+	}
+
+	/**
+	 * @param nanos
+	 *            time spent bringing the utility of an expanded state up to
+	 *            date
+	 */
+	void updated(long nanos) {
+		evaluateNanos.add(nanos);
+	}
+
+	/**
+	 * Counts a turn that started while the agent was pondering
+	 *
+	 * @param hit
+	 *            true if the archers played the reply the agent pondered
+	 */
+	void pondered(boolean hit) {
+
+		if (hit) {
+			ponderHits++;
+		} else {
+			ponderMisses++;
+		}
+	}
+
+	/**
+	 * Prints the counters of the turn that just ended and adds them to the
+	 * totals
+	 *
+	 * @param firstDepth
+	 *            depth of the first iteration
+	 * @param depth
+	 *            deepest iteration that completed
+	 * @param nanos
+	 *            time the turn took
+	 * @param cache
+	 *            the evaluation cache, or null
+	 */
+	void endTurn(int firstDepth, int depth, long nanos, EvaluationCache cache) {
+
+		long[] turnNodes = new long[MAX_PLY];
+		long[] turnCutoffs = new long[MAX_PLY];
+		long[] turnFirstMoveCutoffs = new long[MAX_PLY];
+
+		for (int ply = 0; ply < MAX_PLY; ply++) {
+			turnNodes[ply] = nodes[ply].sumThenReset();
+			turnCutoffs[ply] = cutoffs[ply].sumThenReset();
+			turnFirstMoveCutoffs[ply] = firstMoveCutoffs[ply].sumThenReset();
+			totalNodes[ply] += turnNodes[ply];
+			totalCutoffs[ply] += turnCutoffs[ply];
+			totalFirstMoveCutoffs[ply] += turnFirstMoveCutoffs[ply];
+		}
+
+		long turnEvaluations = evaluations.sumThenReset();
+		long turnTranspositionHits = transpositionHits.sumThenReset();
+		long turnGenerateNanos = generateNanos.sumThenReset();
+		long turnEvaluateNanos = evaluateNanos.sumThenReset();
+		long turnCacheHits = cache == null ? 0 : cache.hits() - cacheHits;
+		long turnCacheMisses = cache == null ? 0 : cache.misses() - cacheMisses;
+
+		totalEvaluations += turnEvaluations;
+		totalTranspositionHits += turnTranspositionHits;
+		totalGenerateNanos += turnGenerateNanos;
+		totalEvaluateNanos += turnEvaluateNanos;
+		totalNanos += nanos;
+		totalCacheHits += turnCacheHits;
+		totalCacheMisses += turnCacheMisses;
+		cacheHits += turnCacheHits;
+		cacheMisses += turnCacheMisses;
+		turns++;
+
+		System.out.println("==> Search turn " + turns + ", depth " + firstDepth + " to " + depth);
+		print(turnNodes, turnCutoffs, turnFirstMoveCutoffs, turnEvaluations, turnTranspositionHits,
+				turnGenerateNanos, turnEvaluateNanos, nanos, turnCacheHits, turnCacheMisses);
+	}
+
+	/**
+	 * Prints the counters summed over every turn that ended
+	 */
+	void printTotals() {
+
+		System.out.println("==> Search totals over " + turns + " turns, " + ponderHits + " ponder hits, "
+				+ ponderMisses + " ponder misses");
+		print(totalNodes, totalCutoffs, totalFirstMoveCutoffs, totalEvaluations, totalTranspositionHits,
+				totalGenerateNanos, totalEvaluateNanos, totalNanos, totalCacheHits, totalCacheMisses);
+	}
+
+	private static void print(long[] nodes, long[] cutoffs, long[] firstMoveCutoffs, long evaluations,
+			long transpositionHits, long generateNanos, long evaluateNanos, long nanos, long cacheHits,
+			long cacheMisses) {
+
+		long allNodes = 0;
+
+		for (long count : nodes) {
+			allNodes += count;
+		}
+
+		System.out.println(String.format(
+				"    %d nodes in %.1f ms, %.0f nodes/s, %d evaluations, %d transposition hits, %.1f%% cache hits",
+				allNodes, nanos / 1e6, nanos == 0 ? 0.0 : allNodes * 1e9 / nanos, evaluations, transpositionHits,
+				percent(cacheHits, cacheHits + cacheMisses)));
+		System.out.println(String.format("    move generation %.1f ms, evaluation %.1f ms", generateNanos / 1e6,
+				evaluateNanos / 1e6));
+
+		for (int ply = 0; ply < nodes.length && nodes[ply] > 0; ply++) {
+			String branching = ply + 1 < nodes.length && nodes[ply + 1] > 0
+					? String.format("%.2f", (double) nodes[ply + 1] / nodes[ply]) : "-";
+			System.out.println(String.format(
+					"    ply %2d: %10d nodes, branching %6s, %10d cutoffs, %5.1f%% by the first move", ply, nodes[ply],
+					branching, cutoffs[ply], percent(firstMoveCutoffs[ply], cutoffs[ply])));
+		}
+	}
+
+	private static double percent(long part, long whole) {
+		return whole == 0 ? 0.0 : 100.0 * part / whole;
+	}
+}
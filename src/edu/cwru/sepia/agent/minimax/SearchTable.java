@@ -0,0 +1,117 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * The slots the TranspositionTable and the BoundTable keep searched positions
+ * in. A table never grows. Each zobrist key maps to one slot, which is
+ * overwritten when a different position lands on it or when the same position
+ * is searched at least as deep as before.
+ *
+ * A slot is a few longs in parallel arrays, so storing a position allocates
+ * nothing: a data word with the best move in its low 32 bits and the depth
+ * above, the payload words of the table, and a check word. The check word is
+ * the key xored with the data and payload, so the threads of the parallel root
+ * search share a table without locking, as they share the EvaluationCache, and
+ * a slot read while another thread writes it does not match its key and is a
+ * miss.
+ */
+abstract class SearchTable {
+
+	public static final int DEFAULT_SIZE = 1 << 16;
+
+	// key xor data xor payload, see the class comment
+	private final long[] checks;
+	// best move in the low 32 bits, then 16 bits of depth, then what the table
+	// adds
+	private final long[] data;
+	private final int mask;
+
+	/**
+	 * @param size
+	 *            number of slots, rounded up to a power of two
+	 */
+	SearchTable(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.checks = new long[capacity];
+		this.data = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return number of slots
+	 */
+	final int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @param key
+	 * @return the slot the position is stored in
+	 */
+	final int index(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	/**
+	 * @param slot
+	 * @return the data word of the slot, read before its payload
+	 */
+	final long data(int slot) {
+		return data[slot];
+	}
+
+	/**
+	 * Checks a slot against a key, once its data and payload have been read
+	 *
+	 * @param slot
+	 * @param key
+	 * @param data
+	 *            data word read from the slot
+	 * @param payload
+	 *            the payload words read from the slot, xored together
+	 * @return true if the slot holds the position
+	 */
+	final boolean holds(int slot, long key, long data, long payload) {
+		long check = checks[slot];
+		return (check ^ data ^ payload) == key && (check | data | payload) != 0;
+	}
+
+	/**
+	 * Finishes a store, once the table has written the payload of the slot
+	 *
+	 * @param slot
+	 * @param key
+	 * @param data
+	 * @param payload
+	 *            the payload words written to the slot, xored together
+	 */
+	final void write(int slot, long key, long data, long payload) {
+		this.data[slot] = data;
+		checks[slot] = key ^ data ^ payload;
+	}
+
+	/**
+	 * @param data
+	 * @return the best move packed in a data word
+	 */
+	static int move(long data) {
+		return (int) data;
+	}
+
+	/**
+	 * @param data
+	 * @return the depth packed in a data word
+	 */
+	static int depth(long data) {
+		return (int) (data >>> 32) & 0xFFFF;
+	}
+
+	/**
+	 * @param bestMove
+	 * @param depth
+	 * @return the data word of a best move and a depth, the table may or in
+	 *         more from bit 48 up
+	 */
+	static long pack(int bestMove, int depth) {
+		return (bestMove & 0xFFFFFFFFL) | ((long) depth << 32);
+	}
+}
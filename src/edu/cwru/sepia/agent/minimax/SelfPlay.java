@@ -0,0 +1,260 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.cwru.sepia.environment.model.state.State;
+
+/**
+ * Plays the agent against the ArcherAgent without SEPIA, many episodes at
+ * once, to measure what a change to the search does to the results. The games
+ * run on GameState: the footmen play the joint move the agent picks, then the
+ * archers the one ArcherPolicy picks, until one side is gone or MAX_TURNS
+ * turns have passed. Every episode gets its own agent and its own random
+ * numbers, seeded with the episode number, so a run can be repeated.
+ *
+ * The agent and the archers play the same moves from the same state, so
+ * episodes that start from the map would all be one game. The first episode
+ * does, and every other one starts after OPENING_TURNS turns of random moves
+ * for both sides, which count towards neither its turns nor MAX_TURNS.
+ *
+ * Usage: SelfPlay maps episodes results plys [name=value ...]
+ *
+ * maps is a comma separated list of map files, episodes the number of
+ * episodes on each map and results the file that gets one line per episode.
+ * The rest are the agent arguments, as in a GameConfig. The episodes already
+ * fill every core, so the agent's threads option is best left at 1.
+ */
+public class SelfPlay {
+
+	// turns after which an episode is a draw
+	static final int MAX_TURNS = 1000;
+	// turns of random moves an episode other than the first starts with
+	static final int OPENING_TURNS = 4;
+
+	/**
+	 * Outcome of one episode
+	 */
+	static final class Episode {
+		final String map;
+		final int number;
+		// 1 if the footmen won, -1 if the archers won, 0 for a draw
+		final int winner;
+		final int turns;
+		final long searchNanos;
+		final int footmenLeft;
+		final int archersLeft;
+
+		Episode(String map, int number, int winner, int turns, long searchNanos, int footmenLeft,
+				int archersLeft) {
+			this.map = map;
+			this.number = number;
+			this.winner = winner;
+			this.turns = turns;
+			this.searchNanos = searchNanos;
+			this.footmenLeft = footmenLeft;
+			this.archersLeft = archersLeft;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 4) {
+			System.err.println("Usage: SelfPlay maps episodes results plys [name=value ...]");
+			System.exit(1);
+		}
+
+		String[] maps = args[0].split(",");
+		int episodes = Integer.parseInt(args[1]);
+		File results = new File(args[2]);
+		String[] agentArgs = Arrays.copyOfRange(args, 3, args.length);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		PrintWriter out = new PrintWriter(new FileWriter(results));
+
+		try {
+			out.println("map,episode,winner,turns,searchMillis,footmenLeft,archersLeft");
+
+			for (String map : maps) {
+				List<Episode> played = playAll(pool, map, episodes, agentArgs);
+
+				for (Episode episode : played) {
+					out.println(episode.map + "," + episode.number + "," + episode.winner + "," + episode.turns + ","
+							+ episode.searchNanos / 1000000 + "," + episode.footmenLeft + "," + episode.archersLeft);
+				}
+				printSummary(map, played);
+			}
+		} finally {
+			out.close();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Plays every episode of a map on the pool
+	 *
+	 * @param pool
+	 * @param map
+	 *            map file
+	 * @param episodes
+	 * @param agentArgs
+	 * @return the episodes in the order of their numbers
+	 * @throws Exception
+	 *             if the map cannot be read or an episode failed
+	 */
+	static List<Episode> playAll(ExecutorService pool, final String map, int episodes, final String[] agentArgs)
+			throws Exception {
+
+		State.StateView view = Maps.load(new File(map));
+		final UnitRoster roster = new UnitRoster(view);
+		final MapSnapshot snapshot = new MapSnapshot(view);
+		final GameState start = new GameState(view, roster, snapshot);
+
+		List<Future<Episode>> futures = new ArrayList<Future<Episode>>();
+
+		for (int i = 0; i < episodes; i++) {
+			final int number = i;
+
+			futures.add(pool.submit(new Callable<Episode>() {
+				@Override
+				public Episode call() {
+					return play(map, number, start, roster, snapshot, agentArgs);
+				}
+			}));
+		}
+
+		List<Episode> played = new ArrayList<Episode>();
+
+		for (Future<Episode> future : futures) {
+			played.add(future.get());
+		}
+		return played;
+	}
+
+	/**
+	 * Plays one episode
+	 *
+	 * @param map
+	 * @param number
+	 *            episode number, also the seed of the opening and the archers
+	 * @param start
+	 *            first state of the map, not changed
+	 * @param roster
+	 * @param snapshot
+	 * @param agentArgs
+	 * @return the outcome
+	 */
+	static Episode play(String map, int number, GameState start, UnitRoster roster, MapSnapshot snapshot,
+			String[] agentArgs) {
+
+		MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, agentArgs);
+		agent.prepare(roster, snapshot);
+		Random random = new Random(number);
+		ArcherPolicy archers = new ArcherPolicy(random);
+
+		GameState state = number == 0 ? start : playOpening(start, random);
+		long searchNanos = 0;
+		int turns = 0;
+
+		while (turns < MAX_TURNS && !isOver(state)) {
+			long searchStart = System.nanoTime();
+			int move = agent.chooseMove(state);
+			searchNanos += System.nanoTime() - searchStart;
+
+			state = state.executeAction(move);
+
+			if (!isOver(state)) {
+				state = state.executeAction(archers.chooseMove(state));
+			}
+			turns++;
+		}
+		// stops the ponder thread, if the agent has one
+		agent.terminalStep(null, null);
+
+		int winner = 0;
+
+		if (state.lifeExpectancy == Double.MAX_VALUE) {
+			winner = 1;
+		} else if (state.lifeExpectancy == Double.MIN_VALUE) {
+			winner = -1;
+		}
+
+		return new Episode(map, number, winner, turns, searchNanos, Integer.bitCount(state.alive & roster.footmenMask),
+				Integer.bitCount(state.alive & roster.archerMask));
+	}
+
+	/**
+	 * Plays OPENING_TURNS turns of random moves for both sides. Each unit
+	 * picks one of its actions, so no list of joint moves is needed, and a
+	 * side with a unit that has none passes. The opening ends early when the
+	 * game does.
+	 *
+	 * @param start
+	 *            first state of the map, not changed
+	 * @param random
+	 * @return the state after the opening, with the footmen to move
+	 */
+	static GameState playOpening(GameState start, Random random) {
+
+		GameState state = start;
+		int[] moves = new int[start.roster.maxUnitMoves];
+
+		for (int ply = 0; ply < 2 * OPENING_TURNS && !isOver(state); ply++) {
+			GameState next = state.copy();
+			int move = JointMove.NONE;
+
+			while (next.isMaxTurn == state.isMaxTurn) {
+				int count = next.generateUnitMoves(moves);
+
+				if (count == 0) {
+					move = JointMove.NONE;
+					break;
+				}
+
+				int action = moves[random.nextInt(count)];
+				move |= action;
+				next.makeMove(action);
+			}
+			state = state.executeAction(move);
+		}
+		return state;
+	}
+
+	private static boolean isOver(GameState state) {
+		return state.lifeExpectancy == Double.MAX_VALUE || state.lifeExpectancy == Double.MIN_VALUE;
+	}
+
+	private static void printSummary(String map, List<Episode> played) {
+
+		int footmenWins = 0;
+		int archerWins = 0;
+		long turns = 0;
+		long searchNanos = 0;
+
+		for (Episode episode : played) {
+			if (episode.winner > 0) {
+				footmenWins++;
+			} else if (episode.winner < 0) {
+				archerWins++;
+			}
+			turns += episode.turns;
+			searchNanos += episode.searchNanos;
+		}
+
+		int count = Math.max(1, played.size());
+
+		System.out.println(String.format(
+				"==> %s: %d episodes, footmen won %.1f%%, archers won %.1f%%, %.1f turns, %.2f ms search per turn",
+				map, played.size(), 100.0 * footmenWins / count, 100.0 * archerWins / count, (double) turns / count,
+				turns == 0 ? 0.0 : searchNanos / 1e6 / turns));
+	}
+}
@@ -0,0 +1,95 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * A fixed size transposition table for the alpha beta search. Footmen and
+ * archers walk back and forth a lot, so the same positions are reached through
+ * different move orders. Every searched position is stored under its zobrist
+ * key together with the depth it was searched to, whether the value is exact or
+ * only a bound, and the best joint action found. The slots are laid out as in
+ * every SearchTable, the value being the payload.
+ */
+public class TranspositionTable extends SearchTable {
+
+	public static final int EXACT = 0;
+	public static final int LOWER_BOUND = 1;
+	public static final int UPPER_BOUND = 2;
+
+	private final long[] values;
+
+	public TranspositionTable() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param size
+	 *            number of slots, rounded up to a power of two
+	 */
+	public TranspositionTable(int size) {
+		super(size);
+		this.values = new long[capacity()];
+	}
+
+	/**
+	 * Looks up a position
+	 *
+	 * @param key
+	 *            zobrist key of the position
+	 * @param entry
+	 *            receives what is stored for the position
+	 * @return the entry, or null if the position is not in the table
+	 */
+	public Entry probe(long key, Entry entry) {
+		int slot = index(key);
+		long data = data(slot);
+		long value = values[slot];
+
+		if (!holds(slot, key, data, value)) {
+			return null;
+		}
+
+		entry.key = key;
+		entry.depth = depth(data);
+		entry.bound = (int) (data >>> 48);
+		entry.value = Double.longBitsToDouble(value);
+		entry.bestMove = move(data);
+		return entry;
+	}
+
+	/**
+	 * Stores the result of searching a position
+	 *
+	 * @param key
+	 * @param depth
+	 *            remaining plys the position was searched with
+	 * @param bound
+	 *            EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param value
+	 * @param bestMove
+	 *            best joint move found, 0 if there is none
+	 */
+	public void store(long key, int depth, int bound, double value, int bestMove) {
+		int slot = index(key);
+		long old = data(slot);
+
+		if (holds(slot, key, old, values[slot]) && depth(old) > depth) {
+			return;
+		}
+
+		long bits = Double.doubleToRawLongBits(value);
+		values[slot] = bits;
+		write(slot, key, pack(bestMove, depth) | ((long) bound << 48), bits);
+	}
+
+	/**
+	 * What the table holds for a position. The table fills in one the caller
+	 * keeps, so a probe allocates nothing.
+	 */
+	public static final class Entry {
+		public long key;
+		public int depth;
+		public int bound;
+		public double value;
+		// packed joint move, see JointMove
+		public int bestMove;
+	}
+}
@@ -0,0 +1,125 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+
+/**
+ * Everything about the units that does not change during an episode. Each
+ * footman and archer gets a slot, footmen first, and a GameState only stores
+ * the position and HP of every slot. The roster is the only place that knows
+ * the SEPIA unit IDs, so it is used to turn slots back into actions at the
+ * root.
+ */
+final class UnitRoster {
+
+	// unit slot to SEPIA unit ID
+	final int[] unitIds;
+	// number of footmen, slots 0 to numFootmen - 1 are footmen
+	final int numFootmen;
+	// number of archers, they take the slots after the footmen
+	final int numArchers;
+	// bit mask with the footmen slots set
+	final int footmenMask;
+	// bit mask with the archer slots set
+	final int archerMask;
+	final int footmenAttackRange;
+	final int archerAttackRange;
+	final int footmenAttackPt;
+	final int archerAttackPt;
+	// most joint moves either side can have, sizes the search's move lists
+	final int maxMoves;
+	// most actions a single unit can have, sizes the move lists of the
+	// factored search
+	final int maxUnitMoves;
+
+	/**
+	 * Assigns slots to the footmen and archers of a state, in the order of
+	 * their unit IDs
+	 *
+	 * @param state
+	 */
+	UnitRoster(State.StateView state) {
+
+		List<Integer> footmen = new ArrayList<Integer>();
+		List<Integer> archers = new ArrayList<Integer>();
+		int footmenRange = 0;
+		int archerRange = 0;
+		int footmenPt = 0;
+		int archerPt = 0;
+
+		for (Unit.UnitView unit : state.getAllUnits()) {
+			if (unit.getTemplateView().getName().equals("Archer")) {
+				archers.add(unit.getID());
+				archerRange = unit.getTemplateView().getRange();
+				archerPt = unit.getTemplateView().getBasicAttack();
+			}
+			if (unit.getTemplateView().getName().equals("Footman")) {
+				footmen.add(unit.getID());
+				footmenRange = unit.getTemplateView().getRange();
+				footmenPt = unit.getTemplateView().getBasicAttack();
+			}
+		}
+
+		Collections.sort(footmen);
+		Collections.sort(archers);
+
+		this.numFootmen = footmen.size();
+		this.numArchers = archers.size();
+
+		if (numFootmen > JointMove.MAX_UNITS || numArchers > JointMove.MAX_UNITS) {
+			throw new IllegalArgumentException("A joint move holds at most " + JointMove.MAX_UNITS
+					+ " units per side, got " + numFootmen + " footmen and " + numArchers + " archers");
+		}
+
+		this.unitIds = new int[numFootmen + numArchers];
+
+		for (int i = 0; i < numFootmen; i++) {
+			unitIds[i] = footmen.get(i);
+		}
+		for (int i = 0; i < numArchers; i++) {
+			unitIds[numFootmen + i] = archers.get(i);
+		}
+
+		this.footmenMask = (1 << numFootmen) - 1;
+		this.archerMask = ((1 << numArchers) - 1) << numFootmen;
+		this.footmenAttackRange = footmenRange;
+		this.archerAttackRange = archerRange;
+		this.footmenAttackPt = footmenPt;
+		this.archerAttackPt = archerPt;
+		this.maxMoves = Math.max(jointMoves(numFootmen, numArchers), jointMoves(numArchers, numFootmen));
+		this.maxUnitMoves = 4 + Math.max(numFootmen, numArchers);
+	}
+
+	/**
+	 * Upper bound on the joint moves of a side: every unit can move in four
+	 * directions or attack any enemy. It grows exponentially with the units,
+	 * at 8 units against 8 it is 12 to the 8th. The joint search only takes
+	 * rosters up to MinimaxAlphaBeta.MAX_JOINT_MOVES, past that the factored
+	 * search, which only lists maxUnitMoves at a time, has to be used.
+	 *
+	 * @param units
+	 * @param enemies
+	 * @return
+	 */
+	private static int jointMoves(int units, int enemies) {
+
+		int moves = 1;
+
+		for (int i = 0; i < units; i++) {
+			moves *= 4 + enemies;
+		}
+		return moves;
+	}
+
+	int size() {
+		return unitIds.length;
+	}
+
+	boolean isFootman(int slot) {
+		return slot < numFootmen;
+	}
+}
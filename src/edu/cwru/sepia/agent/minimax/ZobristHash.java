@@ -0,0 +1,109 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Zobrist keys used to hash a GameState. Instead of filling a random table
+ * sized to the map and the unit HP, every feature key is derived from its
+ * coordinates with a 64 bit mixing function. The keys are therefore stable
+ * between turns and episodes, and a state's hash can be updated incrementally
+ * by xoring out the old feature and xoring in the new one.
+ */
+final class ZobristHash {
+
+	private static final long LOCATION_SEED = 0x9E3779B97F4A7C15L;
+	private static final long HP_SEED = 0xC2B2AE3D27D4EB4FL;
+	private static final long DECISION_SEED = 0x27D4EB2F165667C5L;
+	private static final long EVALUATION_SEED = 0x85EBCA77C2B2AE63L;
+
+	/**
+	 * Xored into the hash whenever the side to move changes. A state with the
+	 * footmen to move does not contain this key.
+	 */
+	static final long SIDE_TO_MOVE = mix(0x165667B19E3779F9L);
+
+	/**
+	 * Xored into the hash once the footmen are cornered, see
+	 * GameState.footmenCornered. The heuristic of the states below changes
+	 * with it, so their searches must not be mixed up in the tables.
+	 */
+	static final long CORNERED = mix(0xD6E8FEB86659FD93L);
+
+	private ZobristHash() {
+	}
+
+	/**
+	 * Key for a unit standing on a location
+	 *
+	 * @param slot
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	static long location(int slot, int x, int y) {
+		return mix(LOCATION_SEED ^ ((long) slot << 40) ^ ((long) x << 20) ^ y);
+	}
+
+	/**
+	 * Key for a unit having a certain amount of HP left
+	 *
+	 * @param slot
+	 * @param hp
+	 * @return
+	 */
+	static long hp(int slot, int hp) {
+		return mix(HP_SEED ^ ((long) slot << 32) ^ hp);
+	}
+
+	/**
+	 * Key for a live unit, its location and HP combined
+	 *
+	 * @param slot
+	 * @param x
+	 * @param y
+	 * @param hp
+	 * @return
+	 */
+	static long unit(int slot, int x, int y, int hp) {
+		return location(slot, x, y) ^ hp(slot, hp);
+	}
+
+	/**
+	 * Key for the action a unit decided on while the rest of its side is
+	 * still deciding, see GameState.makeMove
+	 *
+	 * @param slot
+	 * @param action
+	 *            unit action, see JointMove
+	 * @return
+	 */
+	static long decision(int slot, int action) {
+		return mix(DECISION_SEED ^ ((long) slot << 32) ^ action);
+	}
+
+	/**
+	 * Key for what the heuristic of a state depends on besides its position,
+	 * see GameState.evaluationKey
+	 *
+	 * @param lastMove
+	 *            joint move that led to the state
+	 * @param landed
+	 *            slots whose action in it took effect
+	 * @param chasing
+	 *            mode the state is scored in
+	 * @return
+	 */
+	static long evaluation(int lastMove, int landed, boolean chasing) {
+		return mix(EVALUATION_SEED ^ ((long) lastMove << 32) ^ ((long) landed << 1) ^ (chasing ? 1 : 0));
+	}
+
+	/**
+	 * SplitMix64 finalizer, spreads every input bit over the whole key
+	 *
+	 * @param z
+	 * @return
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,157 @@
+package edu.cwru.sepia.agent.minimax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cwru.sepia.environment.model.state.State;
+
+/**
+ * Plays random lines of moves on the maps in data/ with makeMove, checks the
+ * incrementally kept zobrist key, occupancy grid and utility against the same
+ * things computed from scratch after every move, and checks that unmakeMove
+ * brings every one of them back
+ */
+public class GameStateTest {
+
+	private static final String[] MAPS = { "Game2fv2a.xml", "Game2fv2a_Obstacles.xml", "Game2fv1a_Obstacles.xml" };
+	private static final int LINES = 200;
+	private static final int DEPTH = 12;
+
+	@Test
+	public void jointMovesRoundTrip() throws Exception {
+
+		for (String name : MAPS) {
+			playRandomLines(name, false);
+		}
+	}
+
+	@Test
+	public void unitMovesRoundTrip() throws Exception {
+
+		for (String name : MAPS) {
+			playRandomLines(name, true);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            map file in data/
+	 * @param factored
+	 *            true to play one unit action at a time, as the factored
+	 *            search does
+	 */
+	private static void playRandomLines(String name, boolean factored) throws Exception {
+
+		State.StateView view = Maps.load(new File("data", name));
+		UnitRoster roster = new UnitRoster(view);
+		GameState state = new GameState(view, roster, new MapSnapshot(view));
+		Random random = new Random(name.hashCode());
+		int[] moves = new int[roster.maxMoves];
+		Snapshot[] line = new Snapshot[DEPTH];
+
+		check(name, state);
+
+		for (int i = 0; i < LINES; i++) {
+			int played = 0;
+
+			while (played < DEPTH) {
+				int count = factored ? state.generateUnitMoves(moves) : state.generateMoves(moves);
+
+				if (count == 0) {
+					break;
+				}
+
+				line[played++] = new Snapshot(state);
+				state.makeMove(moves[random.nextInt(count)]);
+				check(name, state);
+			}
+
+			while (played > 0) {
+				state.unmakeMove();
+				line[--played].assertRestored(name, state);
+			}
+		}
+	}
+
+	/**
+	 * Compares the incrementally kept parts of a state with a recomputation
+	 *
+	 * @param name
+	 * @param state
+	 */
+	private static void check(String name, GameState state) {
+
+		long key = (state.isMaxTurn ? 0 : ZobristHash.SIDE_TO_MOVE)
+				^ (state.footmenCornered ? ZobristHash.CORNERED : 0);
+		byte[] occupants = new byte[state.map.cells()];
+		int base = state.isMaxTurn ? 0 : state.roster.numFootmen;
+
+		for (int slot = 0; slot < state.roster.size(); slot++) {
+			if (state.isAlive(slot)) {
+				key ^= ZobristHash.unit(slot, state.getX(slot), state.getY(slot), state.getHP(slot));
+				occupants[state.map.cell(state.getX(slot), state.getY(slot))] = (byte) (slot + 1);
+			}
+			if ((state.decided & (1 << slot)) != 0) {
+				key ^= ZobristHash.decision(slot, JointMove.get(state.pending, slot - base));
+			}
+		}
+
+		assertEquals(name + ": zobrist key", key, state.zobristKey);
+		assertArrayEquals(name + ": occupancy grid", occupants, state.occupants);
+		assertEquals(name + ": utility", new HeuristicUtility(state).getHeuristic(), state.getUtility(), 1e-6);
+	}
+
+	/**
+	 * The fields of a state before a move, which unmakeMove has to restore
+	 */
+	private static final class Snapshot {
+
+		final int[] units;
+		final int alive;
+		final byte[] occupants;
+		final long zobristKey;
+		final double utility;
+		final boolean isMaxTurn;
+		final int pending;
+		final int decided;
+		final int lastMove;
+		final int landed;
+		final boolean footmenCornered;
+		final boolean chasing;
+
+		Snapshot(GameState state) {
+			this.units = state.units.clone();
+			this.alive = state.alive;
+			this.occupants = state.occupants.clone();
+			this.zobristKey = state.zobristKey;
+			this.utility = state.getUtility();
+			this.isMaxTurn = state.isMaxTurn;
+			this.pending = state.pending;
+			this.decided = state.decided;
+			this.lastMove = state.lastMove;
+			this.landed = state.landed;
+			this.footmenCornered = state.footmenCornered;
+			this.chasing = state.chasing;
+		}
+
+		void assertRestored(String name, GameState state) {
+			assertArrayEquals(name + ": units", units, state.units);
+			assertEquals(name + ": alive", alive, state.alive);
+			assertArrayEquals(name + ": occupancy grid", occupants, state.occupants);
+			assertEquals(name + ": zobrist key", zobristKey, state.zobristKey);
+			assertEquals(name + ": utility", utility, state.getUtility(), 0);
+			assertEquals(name + ": side to move", isMaxTurn, state.isMaxTurn);
+			assertEquals(name + ": pending", pending, state.pending);
+			assertEquals(name + ": decided", decided, state.decided);
+			assertEquals(name + ": last move", lastMove, state.lastMove);
+			assertEquals(name + ": landed", landed, state.landed);
+			assertEquals(name + ": cornered", footmenCornered, state.footmenCornered);
+			assertEquals(name + ": chasing", chasing, state.chasing);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package edu.cwru.sepia.agent.minimax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cwru.sepia.environment.model.state.State;
+
+/**
+ * Checks the chase assignment against the goals the evaluation gave the
+ * footmen when it only knew two footmen and two archers
+ */
+public class HeuristicUtilityTest {
+
+	private static final String[] MAPS = { "Game2fv2a.xml", "Game2fv2a_Obstacles.xml", "Game2fv1a_Obstacles.xml" };
+	private static final int LINES = 50;
+	private static final int DEPTH = 12;
+
+	/**
+	 * Plays random lines and scores every footman of every state with every
+	 * combination of the units left alive, so each of 2v2, 2v1, 1v2 and 1v1
+	 * comes up many times
+	 */
+	@Test
+	public void chaseMatchesTwoOnTwoGoals() throws Exception {
+
+		// states checked for each number of footmen and archers
+		int[][] checked = new int[3][3];
+
+		for (String name : MAPS) {
+			State.StateView view = Maps.load(new File("data", name));
+			UnitRoster roster = new UnitRoster(view);
+			GameState start = new GameState(view, roster, new MapSnapshot(view));
+			Random random = new Random(name.hashCode());
+			int[] moves = new int[roster.maxMoves];
+
+			for (int line = 0; line < LINES; line++) {
+				GameState state = start;
+
+				for (int ply = 0; ply < DEPTH; ply++) {
+					int count = state.generateMoves(moves);
+
+					if (count == 0) {
+						break;
+					}
+					state = state.executeAction(moves[random.nextInt(count)]);
+
+					int alive = state.alive;
+
+					for (int footmen = alive & roster.footmenMask; footmen != 0; footmen = (footmen - 1)
+							& alive & roster.footmenMask) {
+						for (int archers = alive & roster.archerMask; archers != 0; archers = (archers - 1)
+								& alive & roster.archerMask) {
+							state.alive = footmen | archers;
+
+							for (int bits = footmen; bits != 0; bits &= bits - 1) {
+								int footman = Integer.numberOfTrailingZeros(bits);
+
+								assertEquals(name + ": chase term of footman " + footman, twoOnTwoTerm(state, footman),
+										HeuristicUtility.chaseTerm(state, footman), 0);
+							}
+							checked[Integer.bitCount(footmen)][Integer.bitCount(archers)]++;
+						}
+					}
+					state.alive = alive;
+				}
+			}
+		}
+
+		for (int footmen = 1; footmen <= 2; footmen++) {
+			for (int archers = 1; archers <= 2; archers++) {
+				assertTrue(footmen + "v" + archers + " never came up", checked[footmen][archers] > 0);
+			}
+		}
+	}
+
+	/**
+	 * The chase term as it was written for two footmen and two archers
+	 */
+	private static double twoOnTwoTerm(GameState state, int footman) {
+
+		int footmen = state.alive & state.roster.footmenMask;
+		int archers = state.alive & state.roster.archerMask;
+		int numFootmen = Integer.bitCount(footmen);
+		int numArchers = Integer.bitCount(archers);
+		int second = Integer.numberOfTrailingZeros(footmen & (footmen - 1));
+		int archer1 = Integer.numberOfTrailingZeros(archers);
+		int archer2 = Integer.numberOfTrailingZeros(archers & (archers - 1));
+
+		if (numFootmen == 2 && numArchers == 2) {
+			int first = Integer.numberOfTrailingZeros(footmen);
+			int target = squaredDistance(state, first, archer2) < squaredDistance(state, first, archer1) ? archer2
+					: archer1;
+			int goal = footman == first ? target : (target == archer1 ? archer2 : archer1);
+			return chase(state, footman, goal);
+		} else if (numFootmen == 2 && numArchers == 1) {
+			return chase(state, footman, footman == second ? archer1 : second);
+		} else if (numFootmen == 1 && numArchers == 2) {
+			return chase(state, footman, archer1) + chase(state, footman, archer2);
+		}
+		return chase(state, footman, archer1);
+	}
+
+	private static double chase(GameState state, int footman, int goal) {
+		return HeuristicUtility.chase(state, footman, state.getX(goal), state.getY(goal), true);
+	}
+
+	private static int squaredDistance(GameState state, int slot, int other) {
+		int dx = state.getX(other) - state.getX(slot);
+		int dy = state.getY(other) - state.getY(slot);
+		return dx * dx + dy * dy;
+	}
+}
@@ -0,0 +1,249 @@
+package edu.cwru.sepia.agent.minimax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cwru.sepia.environment.model.state.State;
+
+/**
+ * Plays the agent against ArcherPolicy, as SelfPlay does, and checks how long
+ * its turns take
+ */
+public class MinimaxAlphaBetaTest {
+
+	private static final int TIME_BUDGET = 50;
+	// what a turn may go over the budget by, for the clock checks and the
+	// ponder search unwinding
+	private static final int SLACK = 100;
+	private static final int TURNS = 30;
+	// time the archers take over their turn, which the agent ponders through
+	private static final int ARCHER_TURN = 300;
+	private static final String[] MAPS = { "Game2fv2a.xml", "Game2fv2a_Obstacles.xml", "Game2fv1a_Obstacles.xml" };
+
+	/**
+	 * A ponder hit starts the turn one ply deeper than the ponder search got,
+	 * and that iteration has to stop at the time budget like any other
+	 */
+	@Test
+	public void ponderHitStaysWithinTimeBudget() throws Exception {
+
+		State.StateView view = Maps.load(new File("data", "Game2fv2a_Obstacles.xml"));
+		UnitRoster roster = new UnitRoster(view);
+		MapSnapshot map = new MapSnapshot(view);
+		GameState state = new GameState(view, roster, map);
+
+		MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0,
+				new String[] { "12", "timeBudget=" + TIME_BUDGET, "ponder=true" });
+		agent.prepare(roster, map);
+		ArcherPolicy archers = new ArcherPolicy(new Random(0));
+
+		for (int turn = 0; turn < TURNS && !isOver(state); turn++) {
+			int hits = agent.ponderHits();
+			long start = System.nanoTime();
+			int move = agent.chooseMove(state);
+			long millis = (System.nanoTime() - start) / 1000000;
+
+			assertNotEquals("turn " + turn + " has no move", JointMove.NONE, move);
+
+			if (agent.ponderHits() > hits) {
+				assertTrue("turn " + turn + " took " + millis + " ms after a ponder hit",
+						millis <= TIME_BUDGET + SLACK);
+			}
+
+			state = state.executeAction(move);
+
+			if (!isOver(state)) {
+				Thread.sleep(ARCHER_TURN);
+				state = state.executeAction(archers.chooseMove(state));
+			}
+		}
+		agent.terminalStep(null, null);
+
+		assertTrue("no turn started with the pondered state", agent.ponderHits() > 0);
+	}
+
+	/**
+	 * SEPIA plays every episode with the same agent, so its ponder thread has
+	 * to outlive an episode, and nothing of the last episode's chase may
+	 * carry over into the next
+	 */
+	@Test
+	public void oneAgentPondersThroughTwoEpisodes() throws Exception {
+
+		State.StateView view = Maps.load(new File("data", "Game2fv2a_Obstacles.xml"));
+		UnitRoster roster = new UnitRoster(view);
+		MapSnapshot map = new MapSnapshot(view);
+		GameState start = new GameState(view, roster, map);
+
+		MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0,
+				new String[] { "6", "timeBudget=" + TIME_BUDGET, "ponder=true" });
+		ArcherPolicy archers = new ArcherPolicy(new Random(0));
+
+		// the first episode goes on until the agent played a turn with an
+		// archer cornered
+		agent.prepare(roster, map);
+		GameState state = start;
+		boolean cornered = false;
+
+		for (int turn = 0; turn < SelfPlay.MAX_TURNS && !isOver(state) && !cornered; turn++) {
+			cornered = state.footmenCornered;
+			state = state.executeAction(agent.chooseMove(state));
+
+			if (!isOver(state)) {
+				Thread.sleep(10);
+				state = state.executeAction(archers.chooseMove(state));
+			}
+		}
+		agent.terminalStep(null, null);
+
+		assertTrue("the first episode never cornered an archer", cornered);
+
+		agent.prepare(roster, map);
+		int hits = agent.ponderHits();
+		state = start.copy();
+
+		for (int turn = 0; turn < TURNS && !isOver(state); turn++) {
+			state = state.executeAction(agent.chooseMove(state));
+
+			if (turn == 0) {
+				assertFalse("the chase of the first episode carried over", state.footmenCornered);
+			}
+
+			if (!isOver(state)) {
+				Thread.sleep(10);
+				state = state.executeAction(archers.chooseMove(state));
+			}
+		}
+		agent.terminalStep(null, null);
+
+		assertTrue("the second episode never pondered", agent.ponderHits() > hits);
+	}
+
+	/**
+	 * The factored search lets one unit decide per ply from the root on,
+	 * which searches the same positions as the joint moves, so its value and
+	 * the joint move it plays have to be the joint search's
+	 */
+	@Test
+	public void factoredSearchMatchesJointSearch() throws Exception {
+		assertSameSearch("factored=true", true);
+	}
+
+	/**
+	 * The tasks of the parallel root search narrow their windows with the
+	 * alpha the others raise, which must not change the value of the root.
+	 * Root moves of the same value go to the task that finished first.
+	 */
+	@Test
+	public void parallelRootSearchMatchesSerialSearch() throws Exception {
+		assertSameSearch("threads=4", false);
+	}
+
+	/**
+	 * An aspiration window only changes how the pvs search gets to the value,
+	 * a value outside the window is searched again with that side open
+	 */
+	@Test
+	public void aspirationSearchMatchesFullWindowSearch() throws Exception {
+		assertSameSearch("search=pvs aspirationWindow=100", false);
+	}
+
+	/**
+	 * The null windows of MTD(f) close in on the value the full window finds
+	 */
+	@Test
+	public void mtdfSearchMatchesAlphaBetaSearch() throws Exception {
+		assertSameSearch("search=mtdf", false);
+	}
+
+	/**
+	 * A reduced quiet move that does better than expected is searched again
+	 * to the full depth. The reduction is a whole turn, since a search one
+	 * ply shorter ends on the other side's move and its value swings by
+	 * thousands. A child needs three plys left to be reduced, so the search
+	 * goes two plys deeper than the others.
+	 */
+	@Test
+	public void lateMoveReductionMatchesFullDepthSearch() throws Exception {
+		assertSameSearch("lateMoveReduction=2 lateMoves=1 futilityMargin=0", false, 5);
+	}
+
+	/**
+	 * Searches positions of random games on every map with and without an
+	 * option and checks the searches agree
+	 *
+	 * @param option
+	 *            options to search with, separated by spaces
+	 * @param sameMove
+	 *            true if the searches also have to pick the same move
+	 */
+	private static void assertSameSearch(String option, boolean sameMove) throws Exception {
+		assertSameSearch(option, sameMove, 3);
+	}
+
+	/**
+	 * @param option
+	 * @param sameMove
+	 * @param maxDepth
+	 *            deepest search to compare, from 1 up
+	 */
+	private static void assertSameSearch(String option, boolean sameMove, int maxDepth) throws Exception {
+
+		for (String name : MAPS) {
+			State.StateView view = Maps.load(new File("data", name));
+			UnitRoster roster = new UnitRoster(view);
+			MapSnapshot map = new MapSnapshot(view);
+			GameState state = new GameState(view, roster, map);
+			Random random = new Random(name.hashCode());
+			int[] moves = new int[roster.maxMoves];
+
+			for (int turn = 0; turn < 20 && !isOver(state); turn++) {
+				for (int depth = 1; depth <= maxDepth; depth++) {
+					GameStateChild expected = search(state, roster, map, depth, "quiescenceDepth=2");
+					GameStateChild actual = search(state, roster, map, depth, "quiescenceDepth=2", option);
+
+					assertEquals(name + ": value at depth " + depth + " with " + option, expected.state.utility,
+							actual.state.utility, 1e-6);
+					if (sameMove) {
+						assertEquals(name + ": move at depth " + depth + " with " + option,
+								expected.state.zobristKey, actual.state.zobristKey);
+					}
+				}
+
+				// a random game, so the positions are not all the opening
+				state = state.executeAction(moves[random.nextInt(state.generateMoves(moves))]);
+				state = state.executeAction(moves[random.nextInt(state.generateMoves(moves))]);
+			}
+		}
+	}
+
+	private static GameStateChild search(GameState state, UnitRoster roster, MapSnapshot map, int depth,
+			String... options) {
+
+		List<String> args = new ArrayList<String>();
+		args.add(Integer.toString(depth));
+		for (String option : options) {
+			args.addAll(Arrays.asList(option.split(" ")));
+		}
+
+		MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args.toArray(new String[args.size()]));
+		agent.prepare(roster, map);
+		// one iteration, guessing the value of the state as mtdf does without
+		// an iteration before
+		return agent.searchIteration(new GameStateChild(null, state), depth, state.getUtility());
+	}
+
+	private static boolean isOver(GameState state) {
+		return state.lifeExpectancy == Double.MAX_VALUE || state.lifeExpectancy == Double.MIN_VALUE;
+	}
+}